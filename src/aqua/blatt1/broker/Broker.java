@@ -1,165 +1,205 @@
 package aqua.blatt1.broker;
 
+import java.awt.GraphicsEnvironment;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.swing.JOptionPane;
 
+import aqua.blatt1.common.BrokerAddresses;
 import aqua.blatt1.common.Properties;
-import aqua.blatt1.common.Direction;
-import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.ExecutionMode;
+import aqua.blatt1.common.WireCodec;
 import aqua.blatt1.common.msgtypes.*;
 import aqua.blatt2.broker.PoisonPill;
 import messaging.Endpoint;
 import messaging.Message;
 import messaging.SecureEndpoint;
+import messaging.log.Logger;
+import messaging.metrics.Counter;
+import messaging.metrics.Gauge;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
 
+/*
+ * Several brokers can run as a cluster (see BrokerAddresses and BrokerCluster). Each broker then
+ * manages one segment of the tank ring, forwards registrations of tanks it does not own to their
+ * owner and exchanges the first and last tank of its segment with the other brokers.
+ */
 public class Broker {
 
     private class BrokerTask implements Runnable {
         private Message message;
+        private final long received = System.nanoTime();
 
         private BrokerTask(Message message) {
             this.message = message;
+            queuedTasks.increment();
         }
 
         @Override
         public void run() {
-            Serializable payload = message.getPayload();
+            queuedTasks.decrement();
+            handle(message.getSender(), message.getPayload(), false);
+            handleLatency.get(message.getPayload().getClass()).recordSince(received);
+        }
+
+        // forwarded is set for requests another broker passed on for the tank at sender
+        private void handle(InetSocketAddress sender, Serializable payload, boolean forwarded) {
+            // any message of a tank renews its lease, the lease sweep picks it up
+            if (!cluster.isPeer(sender)) {
+                recentlySeen.add(sender);
+            }
+            if (payload instanceof Heartbeat && !ring.contains(sender)) {
+                // the lease ran out or another broker owns the tank
+                membership.execute(() -> onRegisterRequest(sender, forwarded));
+            }
+            // membership changes are serialized on the membership thread
             if (payload instanceof RegisterRequest) {
-                InetSocketAddress sender = message.getSender();
-                readLock.lock();
-                int index = clientCollection.indexOf(sender);
-                readLock.unlock();
-                if (index == -1) {
-                    System.out.println("INFO: Registering new client");
-                    register(sender);
-                } else {
-                    System.out.println("INFO: Client already registered, updating lease");
-                    writeLock.lock();
-                    clientCollection.updateLastSeen(index);
-                    writeLock.unlock();
-                }
+                membership.execute(() -> onRegisterRequest(sender, forwarded));
             }
             if (payload instanceof DeregisterRequest) {
-                deregister(message.getSender());
+                membership.execute(() -> deregister(sender));
             }
-            if (payload instanceof HandoffRequest) {
-                handoffFish(message.getSender(), ((HandoffRequest) payload).getFish());
+            if (payload instanceof NameResolutionRequest) {
+                NameResolutionRequest request = (NameResolutionRequest) payload;
+                membership.execute(() -> resolveName(sender, request, forwarded));
             }
-            if (payload instanceof PoisonPill) {
-                stopRequested = true;
+            if (payload instanceof BrokerForward && cluster.isPeer(sender)) {
+                BrokerForward forward = (BrokerForward) payload;
+                handle(forward.getClient(), forward.getRequest(), true);
+            }
+            if (payload instanceof SegmentUpdate && cluster.isPeer(sender)) {
+                membership.execute(() -> onSegmentUpdate(sender, (SegmentUpdate) payload));
+            }
+            if (payload instanceof Handover && cluster.isPeer(sender)) {
+                Handover handover = (Handover) payload;
+                membership.execute(() -> takeOver(handover.getClient(), handover.getId()));
             }
         }
+    }
 
-        private void register(InetSocketAddress address) {
-            int index = clientCollection.size();
-            String id = new String("tank" + index);
+    private static final int POOL_SIZE = 8;
+    // membership changes within this window reach each tank as one NeighborView
+    private static final long NEIGHBOR_VIEW_DELAY_MILLIS = 5;
+    // The lease grows with the number of tanks, so that the renewals stay below
+    // LEASE_RENEWALS_PER_SECOND. A tank expires after twice its lease.
+    private static final int MIN_LEASE_MILLIS = 10 * 1000;
+    private static final int MAX_LEASE_MILLIS = 10 * 60 * 1000;
+    private static final int LEASE_RENEWALS_PER_SECOND = 200;
+    private static final Logger log = Logger.get(Broker.class);
 
-            writeLock.lock();
-            boolean isFirst = clientCollection.size() == 0;
-            clientCollection.add(id, address);
-            
-            // --- Neighbor Update
-            InetSocketAddress leftOfRegistered = clientCollection.getLeftNeighorOf(index);
-            InetSocketAddress rightOfRegistered = clientCollection.getRightNeighorOf(index);
-            writeLock.unlock();
-            
-            endpoint.send(address, new RegisterResponse(id, leftOfRegistered, rightOfRegistered, 10 * 1000));
-            endpoint.send(leftOfRegistered, new NeighborUpdate(address, Direction.RIGHT));
-            endpoint.send(rightOfRegistered, new NeighborUpdate(address, Direction.LEFT));
-            if (isFirst)
-                endpoint.send(address, new Token());
-        }
+    // time from receiving a message until its handler returned, which includes waiting for a pool
+    // thread but not the work passed on to the membership thread
+    private static final ClassValue<LatencyHistogram> handleLatency = Metrics.forType("broker");
+    private static final Counter queuedTasks = Metrics.counter("broker.queued");
 
-        private void deregister(InetSocketAddress address) {
-            System.out.println("INFO: Deregistering client");
+    private final Endpoint endpoint;
+    private volatile boolean stopRequested = false;
 
-            writeLock.lock();
-            int index = clientCollection.indexOf(address);
-            InetSocketAddress rightNeigbor = clientCollection.getRightNeighorOf(index);
-            InetSocketAddress leftNeighbor = clientCollection.getLeftNeighorOf(index);
-            clientCollection.remove(index);
-            writeLock.unlock();
+    // The client collection is confined to the membership thread, which also runs the lease sweep.
+    // Changes are published as a new ring snapshot, read by the message handlers without locking,
+    // once per NeighborView flush rather than per change.
+    private final ScheduledThreadPoolExecutor membership = new ScheduledThreadPoolExecutor(1);
+    private final ClientCollection<InetSocketAddress> clientCollection;
+    private final BrokerCluster cluster;
+    private int nextTankId = 0;
+    private long neighborVersion = 0;
+    private volatile RingSnapshot<InetSocketAddress> ring;
+    // whether the collection changed since the ring was last published
+    private boolean ringChanged = false;
+    // tanks of this segment whose neighbors changed since the last NeighborView flush
+    private final Set<InetSocketAddress> changedViews = new LinkedHashSet<>();
+    private boolean viewFlushScheduled = false;
+    // tanks that sent anything since the last lease sweep, added to by the message handlers
+    private final Set<InetSocketAddress> recentlySeen = ConcurrentHashMap.newKeySet();
+    private int leaseDuration = MIN_LEASE_MILLIS;
+    // longest lease a tank may still be renewing with
+    private int maxIssuedLease = MIN_LEASE_MILLIS;
+    private int leaseShrinks = 0;
 
-            endpoint.send(rightNeigbor, new NeighborUpdate(leftNeighbor, Direction.LEFT));
-            endpoint.send(leftNeighbor, new NeighborUpdate(rightNeigbor, Direction.RIGHT));
+    // tanks of the adjacent segments the ring is joined to
+    private InetSocketAddress joinedLeft;
+    private InetSocketAddress joinedRight;
+    // boundary of this segment as last announced to the other brokers and told to its tanks
+    private InetSocketAddress announcedFirst;
+    private InetSocketAddress announcedLast;
+    private InetSocketAddress leftOfFirst;
+    private InetSocketAddress rightOfLast;
 
-        }
+    private final ExecutionMode executionMode;
+    private final int poolSize;
+    private final List<Gauge> gauges;
 
-        private void handoffFish(InetSocketAddress address, FishModel fish) {
-            Direction direction = fish.getDirection();
-            readLock.lock();
-            int index = clientCollection.indexOf(address);
-            if (direction == Direction.LEFT) {
-                InetSocketAddress left = clientCollection.getLeftNeighorOf(index);
-                endpoint.send(left, new HandoffRequest(fish));
-            } else if (direction == Direction.RIGHT) {
-                InetSocketAddress right = clientCollection.getRightNeighorOf(index);
-                endpoint.send(right, new HandoffRequest(fish));
-            }
-            readLock.unlock();
-        }
+    Broker(ExecutionMode executionMode, BrokerCluster cluster) {
+        this(executionMode, POOL_SIZE, cluster);
     }
 
-    private static final Endpoint endpoint = new SecureEndpoint(Properties.PORT);
-    private static final int POOL_SIZE = 8;
-    private static boolean stopRequested = false;
-
-    private static final ReadWriteLock rwLock = new ReentrantReadWriteLock();
-    private static final Lock readLock = rwLock.readLock();
-    private static final Lock writeLock = rwLock.writeLock();
-    private final ClientCollection<InetSocketAddress> clientCollection;
-    private final Timer garbageCollector = new Timer();
-
-    private Broker() {
+    // poolSize is the number of handler threads in POOL mode
+    Broker(ExecutionMode executionMode, int poolSize, BrokerCluster cluster) {
+        this.executionMode = executionMode;
+        this.poolSize = poolSize;
+        this.cluster = cluster;
+        endpoint = new SecureEndpoint(cluster.getSelf().getPort(), new WireCodec());
         clientCollection = new ClientCollection<>();
+        ring = clientCollection.snapshot();
+        // the periodic sweep and heartbeat are always queued
+        gauges = List.of(Metrics.gauge("broker.membership.queued", () -> membership.getQueue().size()),
+                Metrics.gauge("broker.tanks", () -> ring.size()));
     }
 
-    private void broker() {
-        ExecutorService es = Executors.newFixedThreadPool(POOL_SIZE);
+    // runs the broker until it is stopped with the dialog or with stop()
+    void broker() {
+        ExecutorService es = executionMode.newTaskExecutor(poolSize);
+        log.info("Running message handlers in {} mode", executionMode);
 
-        Thread uiThread = new Thread(() -> {
-            JOptionPane.showMessageDialog(null, "Press Ok to stop the Server", "Stop",
-                    JOptionPane.INFORMATION_MESSAGE);
-            stopRequested = true;
-        });
-        uiThread.start();
+        if (!GraphicsEnvironment.isHeadless()) {
+            Thread uiThread = new Thread(() -> {
+                JOptionPane.showMessageDialog(null, "Press Ok to stop the Server", "Stop",
+                        JOptionPane.INFORMATION_MESSAGE);
+                stop();
+            });
+            uiThread.start();
+        }
 
-        garbageCollector.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                writeLock.lock();
-                if (clientCollection.removeInactiveClients(20 * 1000)) {
-                    System.out.println("INFO: Removed inactive clients");
-                }
-                writeLock.unlock();
-            }
-        }, 0, 1000);
+        membership.scheduleAtFixedRate(this::removeInactiveClients, 0, 1, TimeUnit.SECONDS);
+        if (cluster.size() > 1) {
+            log.info("Broker {} of a cluster of {}", cluster.index() + 1, cluster.size());
+            membership.scheduleAtFixedRate(this::maintainCluster, 0, 1, TimeUnit.SECONDS);
+        }
 
         while (!stopRequested) {
-            Message message = endpoint.nonBlockingReceive();
-            if (message == null) {
-                continue;
+            Message message = endpoint.blockingReceive();
+            if (message.getPayload() instanceof PoisonPill) {
+                stopRequested = true;
+                break;
             }
             try {
                 es.execute(new BrokerTask(message));
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("Could not handle message from {}", message.getSender(), e);
             }
         }
 
-        System.out.println("Shutdown broker!");
-
+        log.info("Shutdown broker!");
 
-        garbageCollector.cancel();
+        if (cluster.size() > 1) {
+            try {
+                membership.submit(this::leaveCluster).get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("Could not hand the tanks over to the other brokers", e);
+            }
+        }
+        membership.shutdownNow();
 
         es.shutdown();
         try {
@@ -169,10 +209,356 @@ public class Broker {
         } catch (InterruptedException e) {
             es.shutdownNow();
         }
+        gauges.forEach(Gauge::close);
+    }
+
+    void stop() {
+        stopRequested = true;
+        // wake up the receive loop; sent through the broker's own socket, so none is left open
+        endpoint.send(cluster.getSelf(), new PoisonPill());
+    }
+
+    // The following methods run on the membership thread.
+
+    private void onRegisterRequest(InetSocketAddress address, boolean forwarded) {
+        if (clientCollection.contains(address)) {
+            // the tank repeats its request until it gets the response, which may have been lost
+            log.debug("Client {} already registered, answering again", address);
+            clientCollection.updateLastSeen(address);
+            changedViews.remove(address);
+            endpoint.send(address, new RegisterResponse(clientCollection.getId(address), leftNeighborOf(address),
+                    rightNeighborOf(address), leaseDuration, nextNeighborVersion()));
+            return;
+        }
+        // a forwarded request is registered here even if the brokers disagree about the owner for a
+        // moment, so that it cannot be passed back and forth
+        InetSocketAddress owner = cluster.ownerOf(address);
+        if (!forwarded && owner != null && !owner.equals(cluster.getSelf())) {
+            endpoint.send(owner, new BrokerForward(address, new RegisterRequest()));
+            return;
+        }
+        log.info("Registering new client {}", address);
+        // ids are never reused and every broker uses its own residue class, so they stay unique
+        register(address, "tank" + (nextTankId++ * cluster.size() + cluster.index()), true);
+    }
+
+    private void takeOver(InetSocketAddress address, String id) {
+        if (!clientCollection.contains(address)) {
+            log.info("Taking over {} from another broker", id);
+            register(address, id, false);
+        }
+    }
+
+    private void register(InetSocketAddress address, String id, boolean mayCreateToken) {
+        boolean isFirst = mayCreateToken && clientCollection.size() == 0 && cluster.lastTankBefore() == null;
+        clientCollection.add(id, address);
+        membershipChanged();
+
+        // --- Neighbor Update
+        InetSocketAddress leftOfRegistered = leftNeighborOf(address);
+        InetSocketAddress rightOfRegistered = rightNeighborOf(address);
+
+        // the response carries the new tank's view, later changes are sent with the next flush
+        changedViews.remove(address);
+        endpoint.send(address, new RegisterResponse(id, leftOfRegistered, rightOfRegistered, leaseDuration,
+                nextNeighborVersion()));
+        neighborsChanged(leftOfRegistered);
+        neighborsChanged(rightOfRegistered);
+        // brokers of a cluster may both see an empty ring; the tanks then drop the token with the
+        // lower id, which is unique like the tank ids
+        if (isFirst)
+            endpoint.send(address, new Token(nextNeighborVersion() * cluster.size() + cluster.index()));
+    }
+
+    private void deregister(InetSocketAddress address) {
+        log.info("Deregistering client {}", address);
+
+        if (!clientCollection.contains(address)) {
+            return;
+        }
+        InetSocketAddress rightNeigbor = rightNeighborOf(address);
+        InetSocketAddress leftNeighbor = leftNeighborOf(address);
+        clientCollection.remove(address);
+        membershipChanged();
+
+        neighborsChanged(rightNeigbor);
+        neighborsChanged(leftNeighbor);
+    }
+
+    private void resolveName(InetSocketAddress sender, NameResolutionRequest request, boolean forwarded) {
+        InetSocketAddress address = clientCollection.getClient(request.getTankId());
+        if (address == null && !forwarded && cluster.size() > 1) {
+            // the tank may belong to another broker, which then answers the tank directly
+            for (InetSocketAddress peer : cluster.livePeers())
+                endpoint.send(peer, new BrokerForward(sender, request));
+            return;
+        }
+        if (address != null || !forwarded)
+            endpoint.send(sender, new NameResolutionResponse(address, request.getRequestId()));
+    }
+
+    private void removeInactiveClients() {
+        for (Iterator<InetSocketAddress> it = recentlySeen.iterator(); it.hasNext();) {
+            InetSocketAddress client = it.next();
+            it.remove();
+            if (clientCollection.contains(client)) {
+                clientCollection.updateLastSeen(client);
+            }
+        }
+        adaptLease();
+
+        int sizeBefore = clientCollection.size();
+        List<InetSocketAddress> affected = clientCollection.removeInactiveClients(2 * maxIssuedLease);
+        int removed = sizeBefore - clientCollection.size();
+        if (removed == 0) {
+            return;
+        }
+        membershipChanged();
+
+        log.info("Removed {} inactive clients", removed);
+        for (InetSocketAddress client : affected) {
+            neighborsChanged(client);
+        }
+    }
+
+    /*
+     * Adapts the lease to the number of tanks and sends the tanks a new lease. The lease only takes
+     * power of two multiples of MIN_LEASE_MILLIS, and shrinks once half as many tanks as now would
+     * still fit the shorter lease, so it does not change back and forth.
+     */
+    private void adaptLease() {
+        int lease = leaseFor(clientCollection.size());
+        if (lease == leaseDuration
+                || lease < leaseDuration && leaseFor(2 * clientCollection.size()) >= leaseDuration) {
+            return;
+        }
+        if (lease > maxIssuedLease) {
+            maxIssuedLease = lease;
+        } else {
+            // a tank that missed the update renews at the old rate until its lease ran out once
+            int shrink = ++leaseShrinks;
+            membership.schedule(() -> {
+                if (shrink == leaseShrinks) {
+                    maxIssuedLease = leaseDuration;
+                }
+            }, leaseDuration, TimeUnit.MILLISECONDS);
+        }
+        leaseDuration = lease;
+
+        log.info("Lease duration is now {} s", lease / 1000);
+        LeaseUpdate update = new LeaseUpdate(lease);
+        for (int i = 0; i < ring.size(); i++) {
+            endpoint.send(ring.get(i), update);
+        }
+    }
+
+    private static int leaseFor(int tanks) {
+        // every tank renews twice per lease
+        long needed = 2L * tanks * 1000 / LEASE_RENEWALS_PER_SECOND;
+        int lease = MIN_LEASE_MILLIS;
+        while (lease < needed && lease < MAX_LEASE_MILLIS) {
+            lease *= 2;
+        }
+        return Math.min(lease, MAX_LEASE_MILLIS);
+    }
+
+    /*
+     * The neighbors of a registered tank in the current membership, joined to the adjacent segments
+     * like the published ring. Reads the collection, so it does not wait for the next flush.
+     */
+    private InetSocketAddress leftNeighborOf(InetSocketAddress tank) {
+        InetSocketAddress joined = cluster.lastTankBefore();
+        return joined != null && tank.equals(clientCollection.getFirst()) ? joined
+                : clientCollection.getLeftNeighorOf(tank);
+    }
+
+    private InetSocketAddress rightNeighborOf(InetSocketAddress tank) {
+        InetSocketAddress joined = cluster.firstTankAfter();
+        return joined != null && tank.equals(clientCollection.getLast()) ? joined
+                : clientCollection.getRightNeighorOf(tank);
+    }
+
+    private void membershipChanged() {
+        ringChanged = true;
+        scheduleViewFlush();
+    }
+
+    private void neighborsChanged(InetSocketAddress tank) {
+        changedViews.add(tank);
+        scheduleViewFlush();
+    }
+
+    private void scheduleViewFlush() {
+        if (!viewFlushScheduled) {
+            viewFlushScheduled = true;
+            membership.schedule(this::flushNeighborViews, NEIGHBOR_VIEW_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Publishes the ring if it changed and sends every tank whose neighbors changed since the last
+     * flush one NeighborView of it, so a burst of registrations costs one snapshot and one message
+     * per tank instead of one per change. Tanks of other segments are skipped, their broker tells
+     * them.
+     */
+    private void flushNeighborViews() {
+        if (ringChanged) {
+            publishRing();
+        }
+        viewFlushScheduled = false;
+        RingSnapshot<InetSocketAddress> current = ring;
+        long version = nextNeighborVersion();
+        for (InetSocketAddress tank : changedViews) {
+            if (current.contains(tank)) {
+                endpoint.send(tank, new NeighborView(current.getLeftNeighorOf(tank),
+                        current.getRightNeighorOf(tank), version));
+            }
+        }
+        changedViews.clear();
+    }
+
+    // wall clock based, so that versions of different brokers and of a restarted broker are comparable
+    private long nextNeighborVersion() {
+        neighborVersion = Math.max(neighborVersion + 1, System.currentTimeMillis() << 10);
+        return neighborVersion;
+    }
+
+    /*
+     * Publishes the ring snapshot read by the message handlers. In a cluster, the snapshot joins this
+     * segment to its neighbor segments; the other brokers are told when the first or last tank of
+     * this segment changed, and those tanks are told when their neighbor in the adjacent segment
+     * changed.
+     */
+    private void publishRing() {
+        ringChanged = false;
+        publishJoined(clientCollection.snapshot());
+    }
+
+    private void publishJoined(RingSnapshot<InetSocketAddress> segment) {
+        joinedLeft = cluster.lastTankBefore();
+        joinedRight = cluster.firstTankAfter();
+        segment = segment.joinedBetween(joinedLeft, joinedRight);
+        ring = segment;
+        if (cluster.size() == 1) {
+            return;
+        }
+
+        InetSocketAddress first = segment.getFirst();
+        InetSocketAddress last = segment.getLast();
+        if (!Objects.equals(first, announcedFirst) || !Objects.equals(last, announcedLast)) {
+            announcedFirst = first;
+            announcedLast = last;
+            announceSegment(false);
+        }
+        if (first == null) {
+            leftOfFirst = null;
+            rightOfLast = null;
+            return;
+        }
+        InetSocketAddress left = segment.getLeftNeighorOf(first);
+        InetSocketAddress right = segment.getRightNeighorOf(last);
+        if (!left.equals(leftOfFirst)) {
+            neighborsChanged(first);
+        }
+        if (!right.equals(rightOfLast)) {
+            neighborsChanged(last);
+        }
+        leftOfFirst = left;
+        rightOfLast = right;
+    }
+
+    private void announceSegment(boolean leaving) {
+        SegmentUpdate update = new SegmentUpdate(announcedFirst, announcedLast, nextNeighborVersion(), leaving);
+        for (InetSocketAddress peer : cluster.peers())
+            endpoint.send(peer, update);
+    }
+
+    private void onSegmentUpdate(InetSocketAddress peer, SegmentUpdate update) {
+        if (cluster.onSegmentUpdate(peer, update)) {
+            log.info("Broker {} {}", peer, update.isLeaving() ? "left" : "joined");
+            // a joining broker learns this segment right away
+            announceSegment(false);
+            rebalance();
+        } else if (!ringChanged && (!Objects.equals(cluster.lastTankBefore(), joinedLeft)
+                || !Objects.equals(cluster.firstTankAfter(), joinedRight))) {
+            // only the neighbor segments changed, this segment's snapshot can be reused; with
+            // changes of its own the next flush publishes it joined to the new neighbors
+            publishJoined(ring);
+        }
+    }
+
+    // sends the heartbeat and notices brokers that stopped sending theirs
+    private void maintainCluster() {
+        if (cluster.expirePeers()) {
+            log.warn("Lost contact to a broker");
+            rebalance();
+        }
+        announceSegment(false);
     }
 
+    /*
+     * Hands the tanks this broker no longer owns over to their new owners and tells the remaining
+     * tanks about neighbors that changed.
+     */
+    private void rebalance() {
+        if (ringChanged) {
+            publishRing();
+        }
+        RingSnapshot<InetSocketAddress> before = ring;
+        int handedOver = 0;
+        for (int i = 0; i < before.size(); i++) {
+            InetSocketAddress tank = before.get(i);
+            InetSocketAddress owner = cluster.ownerOf(tank);
+            if (owner != null && !owner.equals(cluster.getSelf())) {
+                endpoint.send(owner, new Handover(tank, clientCollection.getId(tank)));
+                clientCollection.remove(tank);
+                handedOver++;
+            }
+        }
+        publishRing();
+
+        if (handedOver > 0) {
+            log.info("Handed {} clients over to other brokers", handedOver);
+        }
+        for (int i = 0; i < ring.size(); i++) {
+            InetSocketAddress tank = ring.get(i);
+            if (!ring.getLeftNeighorOf(tank).equals(before.getLeftNeighorOf(tank))
+                    || !ring.getRightNeighorOf(tank).equals(before.getRightNeighorOf(tank))) {
+                neighborsChanged(tank);
+            }
+        }
+    }
+
+    // hands all tanks over to the remaining brokers before shutting down
+    private void leaveCluster() {
+        cluster.leave();
+        if (ringChanged) {
+            publishRing();
+        }
+        RingSnapshot<InetSocketAddress> tanks = ring;
+        for (int i = 0; i < tanks.size(); i++) {
+            InetSocketAddress tank = tanks.get(i);
+            InetSocketAddress owner = cluster.ownerOf(tank);
+            if (owner != null) {
+                endpoint.send(owner, new Handover(tank, clientCollection.getId(tank)));
+            }
+        }
+        announceSegment(true);
+    }
+
+    /*
+     * Usage: Broker [port]. The port selects this broker among those configured with
+     * -Daqua.brokers; it defaults to Properties.PORT. -Dmessaging.metrics.dumpSeconds=<n> prints the
+     * metrics every n seconds, they are also available over JMX.
+     */
     public static void main(String[] args) {
-        Broker broker = new Broker();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Properties.PORT;
+        List<InetSocketAddress> brokers = BrokerAddresses.configured();
+        InetSocketAddress self = brokers.stream().filter(broker -> broker.getPort() == port).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No broker configured on port " + port));
+
+        Metrics.startConfiguredDump();
+        Broker broker = new Broker(ExecutionMode.configured(), new BrokerCluster(brokers, self));
         broker.broker();
         System.exit(0);
     }
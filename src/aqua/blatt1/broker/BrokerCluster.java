@@ -0,0 +1,194 @@
+package aqua.blatt1.broker;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import aqua.blatt1.common.msgtypes.SegmentUpdate;
+
+/*
+ * The brokers of a cluster and the tanks they own. Tanks are assigned to the live brokers by
+ * consistent hashing of the tank address, with VIRTUAL_NODES points per broker on the hash ring, so a
+ * broker joining or leaving only moves the tanks next to its own points. The tanks of each broker
+ * form one segment of the tank ring, and the segments follow each other in the configured broker
+ * order.
+ *
+ * A peer is alive while its segment updates arrive, at least every PEER_TIMEOUT. This class is not
+ * thread-safe, the broker confines it to its membership thread.
+ */
+class BrokerCluster {
+	private static final int VIRTUAL_NODES = 64;
+	private static final long PEER_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+	private static class Segment {
+		final InetSocketAddress first;
+		final InetSocketAddress last;
+		final long version;
+		final long received;
+
+		Segment(SegmentUpdate update) {
+			this.first = update.getFirst();
+			this.last = update.getLast();
+			this.version = update.getVersion();
+			this.received = System.nanoTime();
+		}
+	}
+
+	private final List<InetSocketAddress> brokers;
+	private final InetSocketAddress self;
+	// last segment of every live peer
+	private final Map<InetSocketAddress, Segment> segments = new HashMap<>();
+	private final TreeMap<Integer, InetSocketAddress> hashRing = new TreeMap<>();
+	private boolean leaving = false;
+
+	BrokerCluster(List<InetSocketAddress> brokers, InetSocketAddress self) {
+		if (!brokers.contains(self))
+			throw new IllegalArgumentException(self + " is not one of the brokers " + brokers);
+		this.brokers = brokers;
+		this.self = self;
+		rebuildHashRing();
+	}
+
+	InetSocketAddress getSelf() {
+		return self;
+	}
+
+	/**
+	 * Number of configured brokers, live or not.
+	 */
+	int size() {
+		return brokers.size();
+	}
+
+	/**
+	 * Position of this broker in the configured order.
+	 */
+	int index() {
+		return brokers.indexOf(self);
+	}
+
+	List<InetSocketAddress> peers() {
+		List<InetSocketAddress> peers = new ArrayList<>(brokers);
+		peers.remove(self);
+		return peers;
+	}
+
+	Set<InetSocketAddress> livePeers() {
+		return new HashSet<>(segments.keySet());
+	}
+
+	boolean isPeer(InetSocketAddress address) {
+		return !address.equals(self) && brokers.contains(address);
+	}
+
+	/**
+	 * Records a peer's segment and returns whether the set of live brokers changed.
+	 */
+	boolean onSegmentUpdate(InetSocketAddress peer, SegmentUpdate update) {
+		if (update.isLeaving()) {
+			boolean wasAlive = segments.remove(peer) != null;
+			if (wasAlive)
+				rebuildHashRing();
+			return wasAlive;
+		}
+		Segment known = segments.get(peer);
+		if (known != null && known.version > update.getVersion())
+			return false;
+		segments.put(peer, new Segment(update));
+		if (known == null)
+			rebuildHashRing();
+		return known == null;
+	}
+
+	/**
+	 * Drops the peers that have not sent a segment update for PEER_TIMEOUT and returns whether any did.
+	 */
+	boolean expirePeers() {
+		long now = System.nanoTime();
+		boolean expired = segments.values().removeIf(segment -> now - segment.received > PEER_TIMEOUT_NANOS);
+		if (expired)
+			rebuildHashRing();
+		return expired;
+	}
+
+	/**
+	 * Stops assigning tanks to this broker, so that ownerOf names the brokers taking over its tanks.
+	 */
+	void leave() {
+		leaving = true;
+		rebuildHashRing();
+	}
+
+	/**
+	 * Returns the live broker owning the tank with the given address, or null if there is none.
+	 */
+	InetSocketAddress ownerOf(InetSocketAddress tank) {
+		if (hashRing.isEmpty())
+			return null;
+		Map.Entry<Integer, InetSocketAddress> owner = hashRing.ceilingEntry(hash(key(tank)));
+		return owner != null ? owner.getValue() : hashRing.firstEntry().getValue();
+	}
+
+	/**
+	 * Returns the last tank of the closest preceding segment that has tanks, or null if all other
+	 * segments are empty.
+	 */
+	InetSocketAddress lastTankBefore() {
+		int index = index();
+		for (int i = 1; i < brokers.size(); i++) {
+			Segment segment = segments.get(brokers.get(Math.floorMod(index - i, brokers.size())));
+			if (segment != null && segment.last != null)
+				return segment.last;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first tank of the closest following segment that has tanks, or null if all other
+	 * segments are empty.
+	 */
+	InetSocketAddress firstTankAfter() {
+		int index = index();
+		for (int i = 1; i < brokers.size(); i++) {
+			Segment segment = segments.get(brokers.get((index + i) % brokers.size()));
+			if (segment != null && segment.first != null)
+				return segment.first;
+		}
+		return null;
+	}
+
+	private void rebuildHashRing() {
+		hashRing.clear();
+		if (!leaving)
+			addPoints(self);
+		for (InetSocketAddress peer : segments.keySet())
+			addPoints(peer);
+	}
+
+	private void addPoints(InetSocketAddress broker) {
+		for (int i = 0; i < VIRTUAL_NODES; i++)
+			hashRing.put(hash(key(broker) + "#" + i), broker);
+	}
+
+	private static String key(InetSocketAddress address) {
+		String host = address.isUnresolved() ? address.getHostString() : address.getAddress().getHostAddress();
+		return host + ":" + address.getPort();
+	}
+
+	// String.hashCode spread with the finalizer of MurmurHash3, so that similar keys land far apart
+	private static int hash(String key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
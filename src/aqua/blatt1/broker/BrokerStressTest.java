@@ -0,0 +1,249 @@
+package aqua.blatt1.broker;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import aqua.blatt1.common.ExecutionMode;
+import aqua.blatt1.common.WireCodec;
+import aqua.blatt1.common.msgtypes.DeregisterRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionResponse;
+import aqua.blatt1.common.msgtypes.RegisterRequest;
+import aqua.blatt1.common.msgtypes.RegisterResponse;
+import messaging.SecureEndpoint;
+import messaging.log.Logger;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
+
+/*
+ * Stress test of the broker's concurrency: runs a broker in this JVM with a handler pool of 1, 2, 4,
+ * 8 and 16 threads. For every pool size SENDERS threads let the registered tanks resolve each other's
+ * names as fast as the broker answers, while CHURNERS threads keep registering and deregistering
+ * further tanks. It prints the answers per second that reached a tank, so the throughput can be
+ * compared across pool sizes, and the time from receiving a request until its handler returned. It
+ * checks that
+ * - no more answers reached the tanks than the broker handled requests,
+ * - once the churning tanks deregistered, the ring holds exactly the sending tanks. They deregister
+ *   again after the flood, as UDP may have dropped a DeregisterRequest, which has no reply.
+ *
+ * The tanks are bare endpoints that count the answers they receive; they do not simulate fish.
+ * The same runs compare the execution modes: VIRTUAL is run once, as it has no pool.
+ *
+ * Arguments: [seconds per run] [first port] [modes, e.g. pool,virtual]. The modes default to
+ * -Daqua.executionMode.
+ */
+public class BrokerStressTest {
+	private static final int[] POOL_SIZES = { 1, 2, 4, 8, 16 };
+	private static final int SENDERS = 8;
+	private static final int TANKS_PER_SENDER = 2;
+	private static final int CHURNERS = 2;
+	private static final int TANKS_PER_CHURNER = 4;
+	// requests a sender may have in flight; it waits at most WINDOW_WAIT_MICROS for answers
+	private static final int WINDOW = 64;
+	private static final long WINDOW_WAIT_MICROS = 2000;
+
+	// an endpoint that registers like a tank and counts the name resolutions it receives
+	private static final class FakeTank {
+		final SecureEndpoint endpoint = new SecureEndpoint(0, new WireCodec());
+		final AtomicLong delivered = new AtomicLong();
+		volatile String id;
+
+		FakeTank() {
+			Thread receiver = new Thread(() -> {
+				while (true) {
+					Serializable payload = endpoint.blockingReceive().getPayload();
+					if (payload instanceof NameResolutionResponse) {
+						delivered.incrementAndGet();
+					} else if (payload instanceof RegisterResponse) {
+						id = ((RegisterResponse) payload).getId();
+					}
+				}
+			});
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+
+		// the request is repeated as UDP may drop it when the broker is busy
+		boolean register(InetSocketAddress broker) throws InterruptedException {
+			id = null;
+			for (int attempt = 0; attempt < 10 && id == null; attempt++) {
+				endpoint.send(broker, new RegisterRequest());
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+				while (id == null && System.nanoTime() < deadline) {
+					TimeUnit.MILLISECONDS.sleep(1);
+				}
+			}
+			return id != null;
+		}
+
+		void deregister(InetSocketAddress broker) {
+			endpoint.send(broker, new DeregisterRequest(id));
+			id = null;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 4800;
+		System.setProperty("java.awt.headless", "true");
+		System.setProperty(Logger.LEVEL_PROPERTY, System.getProperty(Logger.LEVEL_PROPERTY, "WARN"));
+		List<ExecutionMode> modes = new ArrayList<>();
+		if (args.length > 2) {
+			for (String mode : args[2].split(",")) {
+				modes.add(ExecutionMode.valueOf(mode.trim().toUpperCase()));
+			}
+		} else {
+			modes.add(ExecutionMode.configured());
+		}
+
+		List<FakeTank> tanks = new ArrayList<>();
+		for (int i = 0; i < SENDERS * TANKS_PER_SENDER; i++) {
+			tanks.add(new FakeTank());
+		}
+		List<FakeTank> churning = new ArrayList<>();
+		for (int i = 0; i < CHURNERS * TANKS_PER_CHURNER; i++) {
+			churning.add(new FakeTank());
+		}
+
+		System.out.printf("%d senders, %d churning threads, %d s per run%n", SENDERS, CHURNERS, seconds);
+		System.out.printf("%-8s %5s %11s %9s %9s %10s %10s %7s %10s %5s%n", "mode", "pool", "answers/s", "p50 us",
+				"p99 us", "sent", "handled", "lost", "churn ops", "ring");
+		boolean passed = true;
+		int port = firstPort;
+		for (ExecutionMode mode : modes) {
+			int[] poolSizes = mode == ExecutionMode.POOL ? POOL_SIZES : new int[] { 0 };
+			for (int poolSize : poolSizes) {
+				InetSocketAddress address = new InetSocketAddress("localhost", port++);
+				passed &= run(mode, poolSize, address, tanks, churning, seconds);
+			}
+		}
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static boolean run(ExecutionMode mode, int poolSize, InetSocketAddress address, List<FakeTank> tanks,
+			List<FakeTank> churning, int seconds) throws InterruptedException {
+		Broker broker = new Broker(mode, poolSize, new BrokerCluster(List.of(address), address));
+		Thread receiver = new Thread(broker::broker, "broker-receive");
+		receiver.start();
+
+		for (FakeTank tank : tanks) {
+			if (!tank.register(address)) {
+				System.out.println("Tank could not register");
+				broker.stop();
+				receiver.join();
+				return false;
+			}
+			tank.delivered.set(0);
+		}
+		for (FakeTank tank : churning) {
+			// registered with the previous broker at most
+			tank.id = null;
+			tank.delivered.set(0);
+		}
+		List<FakeTank> everyone = new ArrayList<>(tanks);
+		everyone.addAll(churning);
+		LatencyHistogram latency = Metrics.histogram("broker.NameResolutionRequest");
+		latency.reset();
+
+		AtomicLong sent = new AtomicLong();
+		AtomicLong churnOperations = new AtomicLong();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		List<Thread> threads = new ArrayList<>();
+		for (int s = 0; s < SENDERS; s++) {
+			List<FakeTank> own = tanks.subList(s * TANKS_PER_SENDER, (s + 1) * TANKS_PER_SENDER);
+			threads.add(new Thread(() -> sent.addAndGet(sendRequests(address, own, everyone, end))));
+		}
+		for (int c = 0; c < CHURNERS; c++) {
+			List<FakeTank> own = churning.subList(c * TANKS_PER_CHURNER, (c + 1) * TANKS_PER_CHURNER);
+			threads.add(new Thread(() -> churnOperations.addAndGet(churn(address, own, end))));
+		}
+		long start = System.nanoTime();
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		// let requests and membership changes in flight settle
+		TimeUnit.MILLISECONDS.sleep(500);
+
+		long delivered = delivered(everyone);
+		// every request is answered, whether the tank is known or not
+		long handled = latency.getCount();
+		for (FakeTank tank : churning) {
+			tank.deregister(address);
+		}
+		TimeUnit.MILLISECONDS.sleep(200);
+		long ringSize = Metrics.values().getOrDefault("broker.tanks", -1L);
+		System.out.printf("%-8s %5s %11.0f %9.1f %9.1f %10d %10d %7d %10d %5d%n", mode,
+				mode == ExecutionMode.POOL ? poolSize : "-", delivered / elapsed, latency.getPercentile(50) / 1e3,
+				latency.getPercentile(99) / 1e3, sent.get(), handled, handled - delivered, churnOperations.get(),
+				ringSize);
+
+		boolean passed = true;
+		if (delivered > handled || handled > sent.get()) {
+			System.out.println("More answers delivered than requests handled or handled than sent");
+			passed = false;
+		}
+		if (ringSize != tanks.size()) {
+			System.out.printf("Ring has %d tanks, %d are registered%n", ringSize, tanks.size());
+			passed = false;
+		}
+
+		broker.stop();
+		receiver.join();
+		return passed;
+	}
+
+	// lets the sender's tanks resolve each other's names until end, at most WINDOW at a time
+	private static long sendRequests(InetSocketAddress broker, List<FakeTank> own, List<FakeTank> all, long end) {
+		long sent = 0;
+		long deliveredBefore = delivered(all);
+		for (int i = 0; System.nanoTime() < end; i++) {
+			long waitUntil = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(WINDOW_WAIT_MICROS);
+			// the deliveries of all senders are shared, so the window is scaled by their number
+			while (sent * SENDERS - (delivered(all) - deliveredBefore) > (long) WINDOW * SENDERS
+					&& System.nanoTime() < waitUntil) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+			}
+			FakeTank tank = own.get(i % own.size());
+			FakeTank other = own.get((i + 1) % own.size());
+			tank.endpoint.send(broker, new NameResolutionRequest(other.id, "fish" + i + "@" + other.id));
+			sent++;
+		}
+		return sent;
+	}
+
+	private static long delivered(List<FakeTank> tanks) {
+		long delivered = 0;
+		for (FakeTank tank : tanks) {
+			delivered += tank.delivered.get();
+		}
+		return delivered;
+	}
+
+	// registers and deregisters the churner's tanks in turn until end, leaves some registered
+	private static long churn(InetSocketAddress broker, List<FakeTank> own, long end) {
+		long operations = 0;
+		try {
+			for (int i = 0; System.nanoTime() < end; i++) {
+				FakeTank tank = own.get(i % own.size());
+				if (tank.id == null) {
+					tank.register(broker);
+				} else {
+					tank.deregister(broker);
+				}
+				operations++;
+				TimeUnit.MILLISECONDS.sleep(5);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return operations;
+	}
+}
@@ -1,91 +1,197 @@
 package aqua.blatt1.broker;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /*
  * This class is not thread-safe and hence must be used in a thread-safe way, e.g. thread confined or 
  * externally synchronized. 
  */
 
+/*
+ * Clients form a ring in registration order: a new client is added between the last and the first
+ * client. Clients are found through hash maps by address and by id, and each client links to its
+ * neighbors, so lookups, neighbor resolution, add and remove all take constant time.
+ *
+ * All clients share the same lease duration, so their lease deadlines are in lastSeen order. A second
+ * linked list keeps the clients in that order (a client moves to its end when its lease is renewed),
+ * which lets removeInactiveClients stop at the first client that is still active.
+ */
+
 public class ClientCollection<T> {
 	private class Client {
 		final String id;
 		final T client;
-		Date lastSeen;
+		long lastSeen;
+		Client left;
+		Client right;
+		Client older;
+		Client newer;
 
 		Client(String id, T client) {
 			this.id = id;
 			this.client = client;
-			this.lastSeen = new Date();
+			this.lastSeen = System.nanoTime();
 		}
 	}
 
-	private final List<Client> clients;
+	private final Map<T, Client> clientsByAddress;
+	private final Map<String, Client> clientsById;
+	private Client first;
+	private Client oldest;
+	private Client newest;
 
 	public ClientCollection() {
-		clients = new ArrayList<Client>();
+		clientsByAddress = new HashMap<T, Client>();
+		clientsById = new HashMap<String, Client>();
 	}
 
 	public ClientCollection<T> add(String id, T client) {
-		clients.add(new Client(id, client));
+		Client added = new Client(id, client);
+		if (first == null) {
+			added.left = added;
+			added.right = added;
+			first = added;
+		} else {
+			Client last = first.left;
+			added.left = last;
+			added.right = first;
+			last.right = added;
+			first.left = added;
+		}
+		clientsByAddress.put(client, added);
+		clientsById.put(id, added);
+		appendNewest(added);
 		return this;
 	}
 
-	public ClientCollection<T> remove(int index) {
-		clients.remove(index);
+	public ClientCollection<T> remove(T client) {
+		Client removed = clientsByAddress.remove(client);
+		if (removed == null)
+			return this;
+		clientsById.remove(removed.id);
+		unlink(removed);
+		unlinkFromAge(removed);
 		return this;
 	}
 
-	public int indexOf(String id) {
-		for (int i = 0; i < clients.size(); i++)
-			if (clients.get(i).id.equals(id))
-				return i;
-		return -1;
+	private void unlink(Client removed) {
+		if (removed.right == removed) {
+			first = null;
+		} else {
+			removed.left.right = removed.right;
+			removed.right.left = removed.left;
+			if (first == removed)
+				first = removed.right;
+		}
+		removed.left = null;
+		removed.right = null;
+	}
+
+	private void appendNewest(Client c) {
+		c.older = newest;
+		c.newer = null;
+		if (newest == null)
+			oldest = c;
+		else
+			newest.newer = c;
+		newest = c;
+	}
+
+	private void unlinkFromAge(Client c) {
+		if (c.older == null)
+			oldest = c.newer;
+		else
+			c.older.newer = c.newer;
+		if (c.newer == null)
+			newest = c.older;
+		else
+			c.newer.older = c.older;
+		c.older = null;
+		c.newer = null;
+	}
+
+	public boolean contains(T client) {
+		return clientsByAddress.containsKey(client);
 	}
 
-	public int indexOf(T client) {
-		for (int i = 0; i < clients.size(); i++)
-			if (clients.get(i).client.equals(client))
-				return i;
-		return -1;
+	public T getClient(String id) {
+		Client c = clientsById.get(id);
+		return c == null ? null : c.client;
 	}
 
-	public T getClient(int index) {
-		return clients.get(index).client;
+	public String getId(T client) {
+		Client c = clientsByAddress.get(client);
+		return c == null ? null : c.id;
 	}
 
 	public int size() {
-		return clients.size();
+		return clientsByAddress.size();
+	}
+
+	/**
+	 * Returns an immutable copy of the ring, starting with the first client.
+	 */
+	public RingSnapshot<T> snapshot() {
+		Object[] ring = new Object[size()];
+		Client c = first;
+		for (int i = 0; i < ring.length; i++, c = c.right)
+			ring[i] = c.client;
+		return new RingSnapshot<T>(ring);
+	}
+
+	public T getFirst() {
+		return first == null ? null : first.client;
 	}
 
-	public T getLeftNeighorOf(int index) {
-		return index == 0 ? clients.get(clients.size() - 1).client : clients.get(index - 1).client;
+	public T getLast() {
+		return first == null ? null : first.left.client;
 	}
 
-	public T getRightNeighorOf(int index) {
-		return index < clients.size() - 1 ? clients.get(index + 1).client : clients.get(0).client;
+	public T getLeftNeighorOf(T client) {
+		return clientsByAddress.get(client).left.client;
 	}
 
-	public Date getLastSeen(int index) {
-		return clients.get(index).lastSeen;
+	public T getRightNeighorOf(T client) {
+		return clientsByAddress.get(client).right.client;
 	}
 
-	public ClientCollection<T> updateLastSeen(int index) {
-		clients.get(index).lastSeen = new Date();
+	public ClientCollection<T> updateLastSeen(T client) {
+		Client c = clientsByAddress.get(client);
+		c.lastSeen = System.nanoTime();
+		unlinkFromAge(c);
+		appendNewest(c);
 		return this;
 	}
 
-	public boolean removeInactiveClients(int inactiveSince) {
-		Date now = new Date();
-		for (int i = clients.size() - 1; i >= 0; i--) {
-			if (now.getTime() - clients.get(i).lastSeen.getTime() > inactiveSince) {
-				clients.remove(i);
-				return true;
+	/**
+	 * Removes every client not seen for more than inactiveSince milliseconds and returns the remaining
+	 * clients whose neighbors changed as a result. Takes time proportional to the number of removed
+	 * clients.
+	 */
+	public List<T> removeInactiveClients(int inactiveSince) {
+		long now = System.nanoTime();
+		long timeout = TimeUnit.MILLISECONDS.toNanos(inactiveSince);
+		Set<Client> affected = new LinkedHashSet<Client>();
+		while (oldest != null && now - oldest.lastSeen > timeout) {
+			Client expired = oldest;
+			if (expired.left != expired) {
+				affected.add(expired.left);
+				affected.add(expired.right);
 			}
+			remove(expired.client);
 		}
-		return false;
+
+		List<T> neighborsChanged = new ArrayList<T>(affected.size());
+		for (Client c : affected)
+			if (c.left != null)
+				neighborsChanged.add(c.client);
+		return neighborsChanged;
 	}
 
 }
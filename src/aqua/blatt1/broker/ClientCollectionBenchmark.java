@@ -0,0 +1,195 @@
+package aqua.blatt1.broker;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*
+ * Compares ClientCollection with the list the broker used before: clients in an ArrayList that every
+ * operation searched by address. For 10, 1000 and 100000 clients it prints the nanoseconds per
+ * operation the broker performs on the membership thread: resolving the neighbors of a tank, renewing
+ * a lease, a tank leaving and another joining, and the lease sweep when no lease has expired.
+ *
+ * Arguments: [operations per measurement]. The list gets fewer operations for large sizes.
+ */
+public class ClientCollectionBenchmark {
+	private static final int[] SIZES = { 10, 1000, 100000 };
+	private static final int ROUNDS = 5;
+
+	// the list based collection as it was, reduced to what the broker called
+	private static final class ClientList<T> {
+		private static final class Client<T> {
+			final String id;
+			final T client;
+			long lastSeen = System.nanoTime();
+
+			Client(String id, T client) {
+				this.id = id;
+				this.client = client;
+			}
+		}
+
+		private final List<Client<T>> clients = new ArrayList<>();
+
+		void add(String id, T client) {
+			clients.add(new Client<>(id, client));
+		}
+
+		void remove(int index) {
+			clients.remove(index);
+		}
+
+		int indexOf(T client) {
+			for (int i = 0; i < clients.size(); i++)
+				if (clients.get(i).client.equals(client))
+					return i;
+			return -1;
+		}
+
+		T getLeftNeighorOf(int index) {
+			return index == 0 ? clients.get(clients.size() - 1).client : clients.get(index - 1).client;
+		}
+
+		T getRightNeighorOf(int index) {
+			return index < clients.size() - 1 ? clients.get(index + 1).client : clients.get(0).client;
+		}
+
+		void updateLastSeen(int index) {
+			clients.get(index).lastSeen = System.nanoTime();
+		}
+
+		boolean removeInactiveClients(long inactiveSince) {
+			long now = System.nanoTime();
+			for (int i = clients.size() - 1; i >= 0; i--) {
+				if (now - clients.get(i).lastSeen > inactiveSince) {
+					clients.remove(i);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// results go here so that the lookups are not optimized away
+	static long sink;
+
+	public static void main(String[] args) throws UnknownHostException {
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		System.out.printf("%8s %-10s %12s %12s %12s %12s%n", "clients", "", "neighbors", "renew", "leave+join",
+				"sweep");
+		for (int size : SIZES) {
+			InetSocketAddress[] addresses = addresses(size + 1);
+			// the linear list gets fewer operations so that 100000 clients finish in seconds
+			int listOperations = (int) Math.max(100, Math.min(operations, 20000000L / size));
+			for (int round = 0; round < ROUNDS; round++) {
+				boolean last = round == ROUNDS - 1;
+				long[] indexed = measureIndexed(addresses, size, operations);
+				long[] list = measureList(addresses, size, listOperations);
+				if (last) {
+					print(size, "indexed", indexed);
+					print(size, "list", list);
+				}
+			}
+		}
+	}
+
+	private static void print(int size, String name, long[] nanosPerOperation) {
+		System.out.printf("%8d %-10s %12d %12d %12d %12d%n", size, name, nanosPerOperation[0], nanosPerOperation[1],
+				nanosPerOperation[2], nanosPerOperation[3]);
+	}
+
+	private static long[] measureIndexed(InetSocketAddress[] addresses, int size, int operations) {
+		ClientCollection<InetSocketAddress> clients = new ClientCollection<>();
+		for (int i = 0; i < size; i++)
+			clients.add("tank" + i, addresses[i]);
+		SplittableRandom random = new SplittableRandom(1);
+		long[] result = new long[4];
+
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			InetSocketAddress client = addresses[random.nextInt(size)];
+			if (clients.contains(client))
+				sink += clients.getLeftNeighorOf(client).getPort() + clients.getRightNeighorOf(client).getPort();
+		}
+		result[0] = (System.nanoTime() - start) / operations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++)
+			clients.updateLastSeen(addresses[random.nextInt(size)]);
+		result[1] = (System.nanoTime() - start) / operations;
+
+		// the spare address takes turns with a random client
+		InetSocketAddress outside = addresses[size];
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			int index = random.nextInt(size);
+			InetSocketAddress leaving = addresses[index];
+			clients.remove(leaving);
+			clients.add("tank" + index, outside);
+			addresses[index] = outside;
+			outside = leaving;
+		}
+		result[2] = (System.nanoTime() - start) / operations;
+		addresses[size] = outside;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++)
+			sink += clients.removeInactiveClients(60 * 1000).size();
+		result[3] = (System.nanoTime() - start) / operations;
+		return result;
+	}
+
+	private static long[] measureList(InetSocketAddress[] addresses, int size, int operations) {
+		ClientList<InetSocketAddress> clients = new ClientList<>();
+		for (int i = 0; i < size; i++)
+			clients.add("tank" + i, addresses[i]);
+		SplittableRandom random = new SplittableRandom(1);
+		long[] result = new long[4];
+
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			int index = clients.indexOf(addresses[random.nextInt(size)]);
+			if (index >= 0)
+				sink += clients.getLeftNeighorOf(index).getPort() + clients.getRightNeighorOf(index).getPort();
+		}
+		result[0] = (System.nanoTime() - start) / operations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++)
+			clients.updateLastSeen(clients.indexOf(addresses[random.nextInt(size)]));
+		result[1] = (System.nanoTime() - start) / operations;
+
+		InetSocketAddress outside = addresses[size];
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			int index = random.nextInt(size);
+			InetSocketAddress leaving = addresses[index];
+			clients.remove(clients.indexOf(leaving));
+			clients.add("tank" + index, outside);
+			addresses[index] = outside;
+			outside = leaving;
+		}
+		result[2] = (System.nanoTime() - start) / operations;
+		addresses[size] = outside;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++)
+			sink += clients.removeInactiveClients(60L * 1000 * 1000 * 1000) ? 1 : 0;
+		result[3] = (System.nanoTime() - start) / operations;
+		return result;
+	}
+
+	// distinct addresses like those of tanks on many hosts
+	private static InetSocketAddress[] addresses(int count) throws UnknownHostException {
+		InetSocketAddress[] addresses = new InetSocketAddress[count];
+		for (int i = 0; i < count; i++) {
+			InetAddress host = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+			addresses[i] = new InetSocketAddress(host, 40000 + i % 1000);
+		}
+		return addresses;
+	}
+}
@@ -0,0 +1,126 @@
+package aqua.blatt1.broker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.ExecutionMode;
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.WireCodec;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import messaging.SecureEndpoint;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
+
+/*
+ * Benchmark of the broker's receive loop: runs a broker in this JVM and sends it HandoffRequests
+ * at 0, 1000 and 50000 messages per second. Tanks hand fish to each other directly, so the broker
+ * drops the handoffs right after dispatching them and the numbers are those of receiving,
+ * decrypting, decoding and handing messages to the pool. For every rate it prints the CPU time of the receive
+ * thread and of the broker (the process without the sending threads) in percent of one core, and
+ * the time from receiving a message until its handler returned. At 0 messages per second the
+ * receive thread should use no CPU at all.
+ *
+ * Arguments: [seconds per rate] [port]. -Daqua.executionMode selects the broker's mode.
+ */
+public class ReceiveLoopBenchmark {
+	private static final int[] RATES = { 0, 1000, 50000 };
+	private static final int SENDERS = 4;
+
+	public static void main(String[] args) throws InterruptedException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 4799;
+		System.setProperty("java.awt.headless", "true");
+
+		InetSocketAddress address = new InetSocketAddress("localhost", port);
+		Broker broker = new Broker(ExecutionMode.configured(), new BrokerCluster(List.of(address), address));
+		Thread receiver = new Thread(broker::broker, "broker-receive");
+		receiver.start();
+
+		List<SecureEndpoint> senders = new ArrayList<>();
+		for (int i = 0; i < SENDERS; i++) {
+			senders.add(newSender());
+		}
+		LatencyHistogram latency = Metrics.histogram("broker.HandoffRequest");
+		// the first message of every sender waits for the key exchange
+		HandoffRequest handoff = new HandoffRequest(new FishModel("fish0@tank0", 0, 0, Direction.LEFT));
+		senders.forEach(sender -> sender.send(address, handoff));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (latency.getCount() < SENDERS && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory
+				.getOperatingSystemMXBean();
+		System.out.printf("%10s %10s %10s %12s %12s %10s %10s%n", "rate/s", "sent", "handled", "receive cpu",
+				"broker cpu", "p50 us", "p99 us");
+		for (int rate : RATES) {
+			latency.reset();
+			AtomicLong sent = new AtomicLong();
+			AtomicLong senderCpu = new AtomicLong();
+			long receiveCpu = threads.getThreadCpuTime(receiver.threadId());
+			long processCpu = os.getProcessCpuTime();
+			long start = System.nanoTime();
+			List<Thread> pacers = new ArrayList<>();
+			for (SecureEndpoint sender : senders) {
+				Thread pacer = new Thread(() -> {
+					sent.addAndGet(sendPaced(sender, address, handoff, (double) rate / SENDERS, seconds));
+					senderCpu.addAndGet(threads.getCurrentThreadCpuTime());
+				});
+				pacer.start();
+				pacers.add(pacer);
+			}
+			for (Thread pacer : pacers) {
+				pacer.join();
+			}
+			// let the broker catch up with what is still queued
+			TimeUnit.MILLISECONDS.sleep(200);
+			double elapsed = System.nanoTime() - start;
+			receiveCpu = threads.getThreadCpuTime(receiver.threadId()) - receiveCpu;
+			processCpu = os.getProcessCpuTime() - processCpu - senderCpu.get();
+			System.out.printf("%10d %10d %10d %11.1f%% %11.1f%% %10.1f %10.1f%n", rate, sent.get(),
+					latency.getCount(), 100 * receiveCpu / elapsed, 100 * processCpu / elapsed,
+					latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3);
+		}
+
+		broker.stop();
+		receiver.join();
+		System.exit(0);
+	}
+
+	private static SecureEndpoint newSender() {
+		SecureEndpoint sender = new SecureEndpoint(0, new WireCodec());
+		// answers the broker's key exchange, nothing else is sent to the senders
+		Thread receiver = new Thread(() -> {
+			while (true) {
+				sender.blockingReceive();
+			}
+		});
+		receiver.setDaemon(true);
+		receiver.start();
+		return sender;
+	}
+
+	// sends rate messages per second for the given time and returns how many were sent
+	private static long sendPaced(SecureEndpoint sender, InetSocketAddress broker, HandoffRequest handoff,
+			double rate, int seconds) {
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long sent = 0;
+		for (long now = start; now < end; now = System.nanoTime()) {
+			long due = (long) ((now - start) * rate / 1e9);
+			for (; sent < due; sent++) {
+				sender.send(broker, handoff);
+			}
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+		}
+		return sent;
+	}
+}
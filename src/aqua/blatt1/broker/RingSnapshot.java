@@ -0,0 +1,78 @@
+package aqua.blatt1.broker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Immutable copy of the client ring of a ClientCollection. It can be shared between threads without
+ * synchronization; membership changes publish a new snapshot instead of modifying this one.
+ *
+ * In a broker cluster the collection only holds one segment of the ring. The neighbors of its first
+ * and last client then belong to other segments and are set with joinedBetween.
+ */
+
+public final class RingSnapshot<T> {
+	private final Object[] clients;
+	private final Map<T, Integer> indices;
+	private final T leftOfFirst;
+	private final T rightOfLast;
+
+	RingSnapshot(Object[] clients) {
+		this(clients, new HashMap<T, Integer>(clients.length * 2), null, null);
+		for (int i = 0; i < clients.length; i++)
+			indices.put(get(i), i);
+	}
+
+	private RingSnapshot(Object[] clients, Map<T, Integer> indices, T leftOfFirst, T rightOfLast) {
+		this.clients = clients;
+		this.indices = indices;
+		this.leftOfFirst = leftOfFirst;
+		this.rightOfLast = rightOfLast;
+	}
+
+	/**
+	 * Returns a snapshot of the same segment whose first client's left neighbor is leftOfFirst and
+	 * whose last client's right neighbor is rightOfLast. Null keeps the ring closed within the segment.
+	 */
+	public RingSnapshot<T> joinedBetween(T leftOfFirst, T rightOfLast) {
+		return new RingSnapshot<T>(clients, indices, leftOfFirst, rightOfLast);
+	}
+
+	/**
+	 * Returns the client at the given position, counted from the first client.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) clients[index];
+	}
+
+	public boolean contains(T client) {
+		return indices.containsKey(client);
+	}
+
+	public int size() {
+		return clients.length;
+	}
+
+	public T getFirst() {
+		return clients.length == 0 ? null : get(0);
+	}
+
+	public T getLast() {
+		return clients.length == 0 ? null : get(clients.length - 1);
+	}
+
+	public T getLeftNeighorOf(T client) {
+		int index = indices.get(client);
+		if (index == 0)
+			return leftOfFirst != null ? leftOfFirst : get(clients.length - 1);
+		return get(index - 1);
+	}
+
+	public T getRightNeighorOf(T client) {
+		int index = indices.get(client);
+		if (index == clients.length - 1)
+			return rightOfLast != null ? rightOfLast : get(0);
+		return get(index + 1);
+	}
+}
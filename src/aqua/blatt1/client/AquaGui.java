@@ -2,11 +2,9 @@ package aqua.blatt1.client;
 
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -16,15 +14,14 @@ import javax.swing.SwingUtilities;
 
 @SuppressWarnings("deprecation")
 public class AquaGui extends JFrame implements Runnable, Observer {
-	private final List<JMenuItem> fishMenuItems = Collections
-			.synchronizedList(new ArrayList<JMenuItem>());
-
-	private final JMenu searchMenu;
+	private final FishSearchDialog fishSearchDialog;
 	private final Runnable updateRunnable;
+	private final AtomicBoolean updatePending = new AtomicBoolean();
 
 	public AquaGui(final TankModel tankModel) {
 		TankView tankView = new TankView(tankModel);
 		tankModel.addObserver(tankView);
+		tankModel.setGlobalSnapshotListener(TankView::showGlobalSnapshot);
 		add(tankView);
 
 		pack();
@@ -51,22 +48,21 @@ public class AquaGui extends JFrame implements Runnable, Observer {
 
 		gsMenuItem.addActionListener(new SnapshotController(tankModel));
 
-		searchMenu = new JMenu("Toggle Fish Color...");
-		toolsMenu.add(searchMenu);
+		fishSearchDialog = new FishSearchDialog(this, tankModel);
+		tankModel.setFishCreatedListener(fishSearchDialog::fishCreated);
+
+		JMenuItem searchMenuItem = new JMenuItem("Toggle Fish Color...");
+		toolsMenu.add(searchMenuItem);
+		searchMenuItem.addActionListener(e -> fishSearchDialog.setVisible(true));
 		tankModel.addObserver(this);
 
 		updateRunnable = new Runnable() {
 			@Override
 			public void run() {
-				setTitle(tankModel.getId());
-
-				int size = fishMenuItems.size();
-				while (tankModel.getFishCounter() > size) {
-					String fishId = "fish" + (++size) + "@" + tankModel.getId();
-					JMenuItem fishMenuItem = new JMenuItem(fishId);
-					fishMenuItem.addActionListener(new ToggleController(tankModel));
-					fishMenuItems.add(fishMenuItem);
-					searchMenu.add(fishMenuItem);
+				updatePending.set(false);
+				String id = tankModel.getFrame().getTankId();
+				if (id != null && !id.equals(getTitle())) {
+					setTitle(id);
 				}
 			}
 		};
@@ -79,7 +75,10 @@ public class AquaGui extends JFrame implements Runnable, Observer {
 
 	@Override
 	public void update(Observable o, Object arg) {
-		SwingUtilities.invokeLater(updateRunnable);
+		// at most one update is queued on the event dispatch thread
+		if (updatePending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(updateRunnable);
+		}
 	}
 
 }
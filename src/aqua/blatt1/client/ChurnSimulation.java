@@ -0,0 +1,122 @@
+package aqua.blatt1.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Churn test for the broker: starts many headless tanks in one JVM and registers all of them at once,
+ * repeating the requests until the broker answers, like a tank does. Join is the time until the
+ * broker has told every tank its neighbors, so that they form one ring. Then all tanks but two
+ * observers deregister at once; leave is the time until the observers are each other's only
+ * neighbors. Deregistrations have no reply, so they are repeated every second until then.
+ * The tanks do not simulate fish, so the messages they receive are the registration and neighbor
+ * traffic.
+ *
+ * Arguments: [tanks] [timeout in seconds for join and for leave].
+ */
+public class ChurnSimulation {
+	private static final long DEREGISTER_RETRY_MILLIS = 1000;
+
+	public static void main(String[] args) throws InterruptedException {
+		int tankCount = Math.max(3, args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+		int timeoutSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+
+		List<ClientCommunicator> communicators = new ArrayList<>();
+		List<TankModel> tanks = new ArrayList<>();
+		for (int i = 0; i < tankCount; i++) {
+			ClientCommunicator communicator = new ClientCommunicator();
+			TankModel tankModel = new TankModel(communicator.newClientForwarder());
+			communicator.newClientReceiver(tankModel).start();
+			communicators.add(communicator);
+			tanks.add(tankModel);
+		}
+
+		long start = System.nanoTime();
+		for (TankModel tankModel : tanks) {
+			tankModel.register();
+		}
+		long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		while (!isConsistentRing(tanks) && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		double joined = (System.nanoTime() - start) / 1e9;
+		boolean consistent = isConsistentRing(tanks);
+		// let views still in flight arrive before counting
+		TimeUnit.MILLISECONDS.sleep(500);
+		long received = 0;
+		for (ClientCommunicator communicator : communicators) {
+			received += communicator.getReceivedMessageCount();
+		}
+
+		System.out.printf("Tanks:           %d started, %d registered%n", tanks.size(), registeredCount(tanks));
+		System.out.printf("Join:            %s after %.2f s%n", consistent ? "consistent ring" : "no consistent ring",
+				joined);
+		System.out.printf("Messages:        %d received (%.1f per tank)%n", received, (double) received / tankCount);
+		if (!consistent) {
+			System.exit(1);
+		}
+
+		TankModel first = tanks.get(0);
+		TankModel second = tanks.get(1);
+		List<TankModel> leaving = tanks.subList(2, tanks.size());
+		start = System.nanoTime();
+		deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		int rounds = 0;
+		long nextRound = start;
+		while (!areOnlyNeighbors(first, second) && System.nanoTime() < deadline) {
+			if (System.nanoTime() >= nextRound) {
+				for (TankModel tankModel : leaving) {
+					tankModel.finish();
+				}
+				rounds++;
+				nextRound += TimeUnit.MILLISECONDS.toNanos(DEREGISTER_RETRY_MILLIS);
+			}
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		double left = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Leave:           %d tanks %s after %.2f s (%d deregistration rounds)%n", leaving.size(),
+				areOnlyNeighbors(first, second) ? "left" : "did not leave", left, rounds);
+
+		first.finish();
+		second.finish();
+		System.exit(areOnlyNeighbors(first, second) ? 0 : 1);
+	}
+
+	private static int registeredCount(List<TankModel> tanks) {
+		int registered = 0;
+		for (TankModel tankModel : tanks) {
+			if (tankModel.getId() != null) {
+				registered++;
+			}
+		}
+		return registered;
+	}
+
+	// in a ring every tank is the left and the right neighbor of exactly one other tank
+	private static boolean isConsistentRing(List<TankModel> tanks) {
+		Set<InetSocketAddress> lefts = new HashSet<>();
+		Set<InetSocketAddress> rights = new HashSet<>();
+		for (TankModel tankModel : tanks) {
+			if (tankModel.getId() == null || !tankModel.getLeftNeighbor().isPresent()
+					|| !tankModel.getRightNeighbor().isPresent()) {
+				return false;
+			}
+			lefts.add(tankModel.getLeftNeighbor().get());
+			rights.add(tankModel.getRightNeighbor().get());
+		}
+		return lefts.size() == tanks.size() && rights.size() == tanks.size();
+	}
+
+	// in a ring of two tanks each is both neighbors of the other
+	private static boolean areOnlyNeighbors(TankModel first, TankModel second) {
+		Optional<InetSocketAddress> firstLeft = first.getLeftNeighbor();
+		Optional<InetSocketAddress> secondLeft = second.getLeftNeighbor();
+		return firstLeft.isPresent() && firstLeft.equals(first.getRightNeighbor()) && secondLeft.isPresent()
+				&& secondLeft.equals(second.getRightNeighbor()) && !firstLeft.equals(secondLeft);
+	}
+}
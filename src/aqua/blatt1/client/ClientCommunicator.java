@@ -1,75 +1,149 @@
 package aqua.blatt1.client;
 
+import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import messaging.Endpoint;
 import messaging.Message;
 import messaging.SecureEndpoint; // Added import
+import messaging.log.Logger;
+import messaging.metrics.Counter;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
 import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.ExecutionMode;
 import aqua.blatt1.common.FishModel;
-import aqua.blatt1.common.Properties;
+import aqua.blatt1.common.BrokerAddresses;
+import aqua.blatt1.common.WireCodec;
+import aqua.blatt1.common.msgtypes.BatchHandoffRequest;
 import aqua.blatt1.common.msgtypes.DeregisterRequest;
 import aqua.blatt1.common.msgtypes.HandoffRequest;
-import aqua.blatt1.common.msgtypes.NeighborUpdate;
+import aqua.blatt1.common.msgtypes.NeighborView;
 import aqua.blatt1.common.msgtypes.RegisterRequest;
 import aqua.blatt1.common.msgtypes.RegisterResponse;
+import aqua.blatt1.common.msgtypes.Heartbeat;
+import aqua.blatt1.common.msgtypes.LeaseUpdate;
 import aqua.blatt1.common.msgtypes.Token;
 import aqua.blatt1.common.msgtypes.LocationRequest;
+import aqua.blatt1.common.msgtypes.LocationUpdate;
+import aqua.blatt1.common.msgtypes.NameResolutionRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionResponse;
 
 public class ClientCommunicator {
+	// fish per handoff message, an encoded batch stays well below the datagram size
+	private static final int MAX_BATCH_SIZE = 24;
+
 	private final Endpoint endpoint;
+	// the first configured broker until a RegisterResponse names the broker owning this tank
+	private volatile InetSocketAddress broker = BrokerAddresses.configured().get(0);
+	private final LongAdder sentMessages = new LongAdder();
+	private final LongAdder receivedMessages = new LongAdder();
+	// the broker counts every message of a tank as a lease renewal
+	private volatile long lastSentToBroker = System.nanoTime();
+
+	private static final Logger log = Logger.get(ClientCommunicator.class);
+	// time from receiving a message until the tank handled it, per message type
+	private static final ClassValue<LatencyHistogram> dispatchLatency = Metrics.forType("client");
+	// totals of all communicators in the process
+	private static final Counter totalSentMessages = Metrics.counter("client.sent");
+	private static final Counter totalReceivedMessages = Metrics.counter("client.received");
 
 	public ClientCommunicator() {
-		endpoint = new SecureEndpoint(); // Replaced Endpoint with SecureEndpoint
+		endpoint = new SecureEndpoint(0, new WireCodec()); // Replaced Endpoint with SecureEndpoint
 	}
 
-	public class ClientForwarder {
-		private final InetSocketAddress broker;
+	private void send(InetSocketAddress receiver, Serializable payload) {
+		endpoint.send(receiver, payload);
+		sentMessages.increment();
+		totalSentMessages.increment();
+		if (receiver.equals(broker)) {
+			lastSentToBroker = System.nanoTime();
+		}
+	}
 
+	public long getSentMessageCount() {
+		return sentMessages.sum();
+	}
+
+	public long getReceivedMessageCount() {
+		return receivedMessages.sum();
+	}
+
+	public class ClientForwarder {
 		private ClientForwarder() {
-			this.broker = new InetSocketAddress(Properties.HOST, Properties.PORT);
 		}
 
 		public void register() {
-			endpoint.send(broker, new RegisterRequest());
+			send(broker, new RegisterRequest());
+		}
+
+		/*
+		 * Renews the lease with a Heartbeat, unless another message went to the broker less than
+		 * recentMillis ago and renewed it already.
+		 */
+		public void renewLease(int recentMillis) {
+			if (System.nanoTime() - lastSentToBroker >= TimeUnit.MILLISECONDS.toNanos(recentMillis)) {
+				send(broker, new Heartbeat());
+			}
 		}
 
 		public void deregister(String id) {
-			endpoint.send(broker, new DeregisterRequest(id));
+			send(broker, new DeregisterRequest(id));
 		}
 
-		public void handOff(FishModel fish, Optional<InetSocketAddress> address) {
-			if (address.isPresent()) {
-				endpoint.send(address.get(), new HandoffRequest(fish));
-			} else {
-				System.err.println("AAHHHH, no address");
-				endpoint.send(broker, new HandoffRequest(fish));
+		/*
+		 * Hands off all fish leaving the tank in one direction during a tick to the neighbor. They are
+		 * sent in batches of at most MAX_BATCH_SIZE fish, so a message always fits into one datagram.
+		 */
+		public void handOff(List<FishModel> fishies, InetSocketAddress receiver) {
+			for (int from = 0; from < fishies.size(); from += MAX_BATCH_SIZE) {
+				int to = Math.min(from + MAX_BATCH_SIZE, fishies.size());
+				if (to - from == 1) {
+					send(receiver, new HandoffRequest(fishies.get(from)));
+				} else {
+					send(receiver, new BatchHandoffRequest(fishies.subList(from, to)));
+				}
 			}
 		}
 
-		public void handOffToken(InetSocketAddress address) {
-			endpoint.send(address, new Token());
+		public void handOffToken(InetSocketAddress address, long tokenId) {
+			send(address, new Token(tokenId));
 		}
 
 		public void sendSnapshotMarker(InetSocketAddress address) {
-			endpoint.send(address, new aqua.blatt1.common.msgtypes.SnapshotMarker());
+			send(address, new aqua.blatt1.common.msgtypes.SnapshotMarker());
 		}
 
 		public void sendSnapshotToken(InetSocketAddress address, int fishCount, boolean initiator) {
-			endpoint.send(address, new aqua.blatt1.common.msgtypes.SnapshotToken(fishCount, initiator));
+			send(address, new aqua.blatt1.common.msgtypes.SnapshotToken(fishCount, initiator));
 		}
 
 		public void sendLocationRequest(InetSocketAddress address, String fishId) {
-			endpoint.send(address, new LocationRequest(fishId));
+			send(address, new LocationRequest(fishId));
+		}
+
+		public void sendNameResolutionRequest(String tankId, String requestId) {
+			send(broker, new NameResolutionRequest(tankId, requestId));
+		}
+
+		public void sendLocationUpdate(InetSocketAddress homeTank, String fishId) {
+			send(homeTank, new LocationUpdate(fishId));
 		}
 	}
 
 	public class ClientReceiver extends Thread {
 		private final TankModel tankModel;
+		// Messages are handled one at a time and in arrival order, but off the receiving thread
+		private final ExecutorService dispatcher;
 
 		private ClientReceiver(TankModel tankModel) {
 			this.tankModel = tankModel;
+			this.dispatcher = ExecutionMode.configured().newSerialExecutor();
 		}
 
 		private Optional<InetSocketAddress> leftNeighbor() {
@@ -83,61 +157,103 @@ public class ClientCommunicator {
 		public void run() {
 			while (!isInterrupted()) {
 				Message msg = endpoint.blockingReceive();
+				receivedMessages.increment();
+				totalReceivedMessages.increment();
+				long received = System.nanoTime();
+				dispatcher.execute(() -> {
+					dispatch(msg);
+					dispatchLatency.get(msg.getPayload().getClass()).recordSince(received);
+				});
+			}
+			dispatcher.shutdown();
+			log.info("Receiver stopped.");
+		}
 
-				if (msg.getPayload() instanceof RegisterResponse) {
-					String id = ((RegisterResponse) msg.getPayload()).getId();
-					InetSocketAddress leftNeighbor = ((RegisterResponse) msg.getPayload()).getLeftNeighbor();
-					InetSocketAddress rightNeighbor = ((RegisterResponse) msg.getPayload()).getRightNeighbor();
-					int leaseDuration = ((RegisterResponse) msg.getPayload()).getLeaseDuration();
-					tankModel.onRegistration(id, leaseDuration);
-					tankModel.onNewNeighbor(leftNeighbor, Direction.LEFT);
-					tankModel.onNewNeighbor(rightNeighbor, Direction.RIGHT);
+		private void dispatch(Message msg) {
+			if (msg.getPayload() instanceof RegisterResponse) {
+				// in a broker cluster the response comes from the broker owning this tank
+				broker = msg.getSender();
+				String id = ((RegisterResponse) msg.getPayload()).getId();
+				InetSocketAddress leftNeighbor = ((RegisterResponse) msg.getPayload()).getLeftNeighbor();
+				InetSocketAddress rightNeighbor = ((RegisterResponse) msg.getPayload()).getRightNeighbor();
+				int leaseDuration = ((RegisterResponse) msg.getPayload()).getLeaseDuration();
+				long version = ((RegisterResponse) msg.getPayload()).getVersion();
+				tankModel.onRegistration(id, leaseDuration);
+				tankModel.onNewNeighbor(leftNeighbor, Direction.LEFT, version);
+				tankModel.onNewNeighbor(rightNeighbor, Direction.RIGHT, version);
+			}
+
+			if (msg.getPayload() instanceof LeaseUpdate) {
+				tankModel.onLeaseUpdate(((LeaseUpdate) msg.getPayload()).getLeaseDuration());
+			}
+
+			if (msg.getPayload() instanceof HandoffRequest) {
+				HandoffRequest req = (HandoffRequest) msg.getPayload();
+				Direction dir = null;
+				if (msg.getSender().equals(leftNeighbor().orElse(null))) {
+					dir = Direction.RIGHT;
+				} else if (msg.getSender().equals(rightNeighbor().orElse(null))) {
+					dir = Direction.LEFT;
 				}
+				if (dir != null) {
+					tankModel.receiveFish(req.getFish(), dir);
+				} else {
+					tankModel.receiveFish(req.getFish()); // fallback
+				}
+			}
 
-				if (msg.getPayload() instanceof HandoffRequest) {
-					HandoffRequest req = (HandoffRequest) msg.getPayload();
-					Direction dir = null;
-					if (msg.getSender().equals(leftNeighbor().orElse(null))) {
-						dir = Direction.RIGHT;
-					} else if (msg.getSender().equals(rightNeighbor().orElse(null))) {
-						dir = Direction.LEFT;
-					}
+			if (msg.getPayload() instanceof BatchHandoffRequest) {
+				BatchHandoffRequest req = (BatchHandoffRequest) msg.getPayload();
+				Direction dir = null;
+				if (msg.getSender().equals(leftNeighbor().orElse(null))) {
+					dir = Direction.RIGHT;
+				} else if (msg.getSender().equals(rightNeighbor().orElse(null))) {
+					dir = Direction.LEFT;
+				}
+				for (FishModel fish : req.getFishies()) {
 					if (dir != null) {
-						tankModel.receiveFish(req.getFish(), dir);
+						tankModel.receiveFish(fish, dir);
 					} else {
-						tankModel.receiveFish(req.getFish()); // fallback
+						tankModel.receiveFish(fish); // fallback
 					}
 				}
+			}
 
-				if (msg.getPayload() instanceof NeighborUpdate) {
-					InetSocketAddress address = ((NeighborUpdate) msg.getPayload()).getAddress();
-					Direction direction = ((NeighborUpdate) msg.getPayload()).getDirection();
-					tankModel.onNewNeighbor(address, direction);
-				}
+			if (msg.getPayload() instanceof NeighborView) {
+				NeighborView view = (NeighborView) msg.getPayload();
+				tankModel.onNewNeighbor(view.getLeftNeighbor(), Direction.LEFT, view.getVersion());
+				tankModel.onNewNeighbor(view.getRightNeighbor(), Direction.RIGHT, view.getVersion());
+			}
 
-				if (msg.getPayload() instanceof Token) {
-					tankModel.receiveToken();
-				}
+			if (msg.getPayload() instanceof Token) {
+				tankModel.receiveToken(((Token) msg.getPayload()).getId());
+			}
 
-				if (msg.getPayload() instanceof aqua.blatt1.common.msgtypes.SnapshotMarker) {
-					// Determine direction based on sender (not available in this code, so assume both for demo)
-					// In real code, you would need to know which channel (LEFT/RIGHT) this marker came from
-					// For now, call for both directions for demonstration
-					tankModel.receiveSnapshotMarker(Direction.LEFT);
-					tankModel.receiveSnapshotMarker(Direction.RIGHT);
-				}
-				if (msg.getPayload() instanceof aqua.blatt1.common.msgtypes.SnapshotToken) {
-					aqua.blatt1.common.msgtypes.SnapshotToken token = (aqua.blatt1.common.msgtypes.SnapshotToken) msg.getPayload();
-					tankModel.receiveSnapshotToken(token.getFishCount(), token.isInitiator());
-				}
+			if (msg.getPayload() instanceof aqua.blatt1.common.msgtypes.SnapshotMarker) {
+				// Determine direction based on sender (not available in this code, so assume both for demo)
+				// In real code, you would need to know which channel (LEFT/RIGHT) this marker came from
+				// For now, call for both directions for demonstration
+				tankModel.receiveSnapshotMarker(Direction.LEFT);
+				tankModel.receiveSnapshotMarker(Direction.RIGHT);
+			}
+			if (msg.getPayload() instanceof aqua.blatt1.common.msgtypes.SnapshotToken) {
+				aqua.blatt1.common.msgtypes.SnapshotToken token = (aqua.blatt1.common.msgtypes.SnapshotToken) msg.getPayload();
+				tankModel.receiveSnapshotToken(token.getFishCount(), token.isInitiator());
+			}
 
-				if (msg.getPayload() instanceof LocationRequest) {
-					LocationRequest req = (LocationRequest) msg.getPayload();
-					tankModel.locateFishGlobally(req.getFishId());
-				}
+			if (msg.getPayload() instanceof LocationRequest) {
+				LocationRequest req = (LocationRequest) msg.getPayload();
+				tankModel.locateFishGlobally(req.getFishId());
+			}
+
+			if (msg.getPayload() instanceof NameResolutionResponse) {
+				NameResolutionResponse response = (NameResolutionResponse) msg.getPayload();
+				tankModel.onNameResolved(response.getAddress(), response.getRequestId());
+			}
 
+			if (msg.getPayload() instanceof LocationUpdate) {
+				tankModel.onLocationUpdate(((LocationUpdate) msg.getPayload()).getFishId(), msg.getSender());
 			}
-			System.out.println("Receiver stopped.");
 		}
 	}
 
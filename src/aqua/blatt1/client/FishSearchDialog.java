@@ -0,0 +1,182 @@
+package aqua.blatt1.client;
+
+import java.awt.BorderLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/*
+ * Lists the ids of the fish created in this tank and lets the user toggle one of them. New ids are
+ * pushed by the model through fishCreated() and appended in batches on the event dispatch thread. The
+ * list only renders the visible rows, so it stays responsive with 100k ids.
+ */
+@SuppressWarnings("serial")
+public final class FishSearchDialog extends JDialog {
+	private final FishListModel fishListModel = new FishListModel();
+	private final JList<String> fishList = new JList<>(fishListModel);
+	private final JTextField searchField = new JTextField();
+
+	private final Queue<String> createdFish = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean appendPending = new AtomicBoolean();
+	private final Runnable appendRunnable = new Runnable() {
+		@Override
+		public void run() {
+			appendPending.set(false);
+			List<String> ids = new ArrayList<>();
+			for (String id; (id = createdFish.poll()) != null;)
+				ids.add(id);
+			fishListModel.append(ids);
+		}
+	};
+
+	public FishSearchDialog(JFrame owner, TankModel tankModel) {
+		super(owner, "Toggle Fish Color");
+
+		fishList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		// fixed cell size, so the list does not measure every id
+		fishList.setPrototypeCellValue("fish0000000@tank0000");
+
+		ToggleController toggleController = new ToggleController(tankModel, fishList);
+		JButton toggleButton = new JButton("Toggle");
+		toggleButton.addActionListener(toggleController);
+		searchField.addActionListener(toggleController);
+		fishList.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					toggleController.toggleSelected();
+				}
+			}
+		});
+
+		searchField.getDocument().addDocumentListener(new SearchListener(searchField, fishListModel, fishList));
+
+		add(searchField, BorderLayout.NORTH);
+		add(new JScrollPane(fishList), BorderLayout.CENTER);
+		add(toggleButton, BorderLayout.SOUTH);
+		setSize(300, 400);
+		setLocationRelativeTo(owner);
+	}
+
+	/*
+	 * Called by the model for every new fish, on any thread.
+	 */
+	public void fishCreated(String fishId) {
+		createdFish.add(fishId);
+		if (appendPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(appendRunnable);
+		}
+	}
+
+	/*
+	 * Filters the list by the search text on every edit and selects the first match. Only holds the
+	 * components, not the dialog, which is still being constructed when the listener is added.
+	 */
+	private static class SearchListener implements DocumentListener {
+		private final JTextField searchField;
+		private final FishListModel fishListModel;
+		private final JList<String> fishList;
+
+		SearchListener(JTextField searchField, FishListModel fishListModel, JList<String> fishList) {
+			this.searchField = searchField;
+			this.fishListModel = fishListModel;
+			this.fishList = fishList;
+		}
+
+		private void filter() {
+			fishListModel.setFilter(searchField.getText().trim());
+			if (fishListModel.getSize() > 0) {
+				fishList.setSelectedIndex(0);
+			}
+		}
+
+		@Override
+		public void insertUpdate(DocumentEvent e) {
+			filter();
+		}
+
+		@Override
+		public void removeUpdate(DocumentEvent e) {
+			filter();
+		}
+
+		@Override
+		public void changedUpdate(DocumentEvent e) {
+			filter();
+		}
+	}
+
+	/*
+	 * All ids in creation order plus the indices of those containing the filter text. Without a filter
+	 * the list shows all ids and no index is kept.
+	 */
+	private static class FishListModel extends AbstractListModel<String> {
+		private final List<String> ids = new ArrayList<>();
+		private final List<Integer> matches = new ArrayList<>();
+		private String filter = "";
+
+		void append(List<String> added) {
+			int oldSize = getSize();
+			ids.addAll(added);
+			if (!filter.isEmpty()) {
+				for (int i = ids.size() - added.size(); i < ids.size(); i++)
+					if (ids.get(i).contains(filter))
+						matches.add(i);
+			}
+			if (getSize() > oldSize) {
+				fireIntervalAdded(this, oldSize, getSize() - 1);
+			}
+		}
+
+		void setFilter(String filter) {
+			if (filter.equals(this.filter)) {
+				return;
+			}
+			int oldSize = getSize();
+			this.filter = filter;
+			matches.clear();
+			if (!filter.isEmpty()) {
+				for (int i = 0; i < ids.size(); i++)
+					if (ids.get(i).contains(filter))
+						matches.add(i);
+			}
+			// the list keeps its own idea of the size, so rows that went away or came in are reported
+			// as such and only the rows in both ranges as changed
+			int newSize = getSize();
+			if (newSize < oldSize) {
+				fireIntervalRemoved(this, newSize, oldSize - 1);
+			} else if (newSize > oldSize) {
+				fireIntervalAdded(this, oldSize, newSize - 1);
+			}
+			if (Math.min(oldSize, newSize) > 0) {
+				fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+			}
+		}
+
+		@Override
+		public int getSize() {
+			return filter.isEmpty() ? ids.size() : matches.size();
+		}
+
+		@Override
+		public String getElementAt(int index) {
+			return filter.isEmpty() ? ids.get(index) : ids.get(matches.get(index));
+		}
+	}
+}
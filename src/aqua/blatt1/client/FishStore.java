@@ -0,0 +1,162 @@
+package aqua.blatt1.client;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
+import java.util.stream.IntStream;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * The fish of a tank, stored as parallel primitive arrays so that a tick walks over contiguous memory
+ * and does not allocate. A fish is addressed by its slot; removing a fish moves the last fish into
+ * the freed slot. The string ids are kept in a table that maps them to their current slot.
+ *
+ * Each chunk of slots draws from its own generator split off the tank's generator, so a seeded tank
+ * moves its fish the same way whether the chunks run sequentially or in parallel.
+ *
+ * This class is not thread-safe, TankModel only uses it while holding its monitor.
+ */
+class FishStore {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final int INITIAL_CAPACITY = 16;
+	// below this many fish a tick is cheaper than handing work to other threads
+	static final int PARALLEL_THRESHOLD = 8192;
+	private static final int CHUNK_SIZE = 2048;
+
+	private int size = 0;
+	private int[] x = new int[INITIAL_CAPACITY];
+	private int[] y = new int[INITIAL_CAPACITY];
+	private byte[] direction = new byte[INITIAL_CAPACITY];
+	private boolean[] toggled = new boolean[INITIAL_CAPACITY];
+	private String[] ids = new String[INITIAL_CAPACITY];
+	private final Map<String, Integer> slots = new HashMap<>();
+	private final SplittableGenerator random;
+	private RandomGenerator[] chunkRandoms = new RandomGenerator[0];
+
+	FishStore(SplittableGenerator random) {
+		this.random = random;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int add(FishModel fish) {
+		if (size == ids.length) {
+			grow();
+		}
+		int slot = size++;
+		x[slot] = fish.getX();
+		y[slot] = fish.getY();
+		direction[slot] = (byte) fish.getDirection().ordinal();
+		toggled[slot] = fish.isToggled();
+		ids[slot] = fish.getId();
+		slots.put(fish.getId(), slot);
+		return slot;
+	}
+
+	private void grow() {
+		int capacity = ids.length * 2;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		direction = Arrays.copyOf(direction, capacity);
+		toggled = Arrays.copyOf(toggled, capacity);
+		ids = Arrays.copyOf(ids, capacity);
+	}
+
+	void remove(int slot) {
+		// the id maps to another slot if the fish is here twice for a moment, e.g. when it leaves and
+		// comes back in a ring of one tank
+		if (slotOf(ids[slot]) == slot) {
+			slots.remove(ids[slot]);
+		}
+		int last = --size;
+		if (slot != last) {
+			x[slot] = x[last];
+			y[slot] = y[last];
+			direction[slot] = direction[last];
+			toggled[slot] = toggled[last];
+			ids[slot] = ids[last];
+			if (slotOf(ids[slot]) == last) {
+				slots.put(ids[slot], slot);
+			}
+		}
+		ids[last] = null;
+	}
+
+	/*
+	 * Returns the slot of the fish with the given id or -1.
+	 */
+	int slotOf(String id) {
+		Integer slot = slots.get(id);
+		return slot == null ? -1 : slot;
+	}
+
+	/*
+	 * Moves all fish one step. From PARALLEL_THRESHOLD fish on, the chunks are moved in parallel on the
+	 * common fork/join pool; fish do not interact, so the result is the same.
+	 */
+	void updateAll() {
+		int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		while (chunkRandoms.length < chunks) {
+			int length = chunkRandoms.length;
+			chunkRandoms = Arrays.copyOf(chunkRandoms, length + 1);
+			chunkRandoms[length] = random.split();
+		}
+		if (size < PARALLEL_THRESHOLD) {
+			for (int chunk = 0; chunk < chunks; chunk++) {
+				updateChunk(chunk);
+			}
+		} else {
+			IntStream.range(0, chunks).parallel().forEach(this::updateChunk);
+		}
+	}
+
+	private void updateChunk(int chunk) {
+		RandomGenerator rand = chunkRandoms[chunk];
+		int end = Math.min((chunk + 1) * CHUNK_SIZE, size);
+		for (int slot = chunk * CHUNK_SIZE; slot < end; slot++) {
+			x[slot] += DIRECTIONS[direction[slot]].getVector();
+			y[slot] = FishModel.nextY(x[slot], y[slot], rand);
+		}
+	}
+
+	boolean hitsEdge(int slot) {
+		return FishModel.hitsEdge(x[slot], DIRECTIONS[direction[slot]]);
+	}
+
+	boolean disappears(int slot) {
+		return FishModel.disappears(x[slot], DIRECTIONS[direction[slot]]);
+	}
+
+	void reverse(int slot) {
+		direction[slot] = (byte) DIRECTIONS[direction[slot]].reverse().ordinal();
+	}
+
+	void toggle(int slot) {
+		toggled[slot] = !toggled[slot];
+	}
+
+	Direction getDirection(int slot) {
+		return DIRECTIONS[direction[slot]];
+	}
+
+	String getId(int slot) {
+		return ids[slot];
+	}
+
+	/*
+	 * Returns a copy of the fish in the given slot, e.g. to hand it off or to draw it.
+	 */
+	FishModel get(int slot) {
+		FishModel fish = new FishModel(ids[slot], x[slot], y[slot], DIRECTIONS[direction[slot]]);
+		if (toggled[slot]) {
+			fish.toggle();
+		}
+		return fish;
+	}
+}
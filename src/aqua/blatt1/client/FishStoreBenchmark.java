@@ -0,0 +1,86 @@
+package aqua.blatt1.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import aqua.blatt1.common.Direction;
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Compares the ticks per second of FishStore with the Set<FishModel> the tank kept before, for 10,
+ * 1000 and 100000 fish. A tick is what TankModel does without the token: move every fish and turn
+ * those at the edge around. No fish leaves, so every tick moves the same number of fish.
+ *
+ * Arguments: [seconds per measurement].
+ */
+public class FishStoreBenchmark {
+	private static final int[] SIZES = { 10, 1000, 100000 };
+
+	public static void main(String[] args) {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+
+		System.out.printf("%8s %14s %14s %8s%n", "fish", "store ticks/s", "set ticks/s", "speedup");
+		for (int size : SIZES) {
+			FishStore store = new FishStore(new SplittableRandom(1));
+			Set<FishModel> set = Collections.newSetFromMap(new ConcurrentHashMap<FishModel, Boolean>());
+			SplittableRandom random = new SplittableRandom(2);
+			for (int i = 0; i < size; i++) {
+				// the store copies the fish, so both start from the same positions
+				FishModel fish = randomFish(random, i);
+				store.add(fish);
+				set.add(fish);
+			}
+			// the first run warms up the JIT
+			ticksPerSecond(() -> tick(store), 1);
+			double storeTicks = ticksPerSecond(() -> tick(store), seconds);
+			SplittableRandom setRandom = new SplittableRandom(1);
+			ticksPerSecond(() -> tick(set, setRandom), 1);
+			double setTicks = ticksPerSecond(() -> tick(set, setRandom), seconds);
+			System.out.printf("%8d %14.0f %14.0f %7.1fx%n", size, storeTicks, setTicks, storeTicks / setTicks);
+		}
+	}
+
+	static FishModel randomFish(SplittableRandom random, int i) {
+		return new FishModel("fish" + i + "@tank0", random.nextInt(TankModel.WIDTH - FishModel.getXSize()),
+				random.nextInt(TankModel.HEIGHT - FishModel.getYSize()),
+				random.nextBoolean() ? Direction.LEFT : Direction.RIGHT);
+	}
+
+	static double ticksPerSecond(Runnable tick, int seconds) {
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long ticks = 0;
+		long now;
+		do {
+			tick.run();
+			ticks++;
+			now = System.nanoTime();
+		} while (now < end);
+		return ticks / ((now - start) / 1e9);
+	}
+
+	// the loop of TankModel.updateFishies without the token
+	static void tick(FishStore fishies) {
+		fishies.updateAll();
+		for (int slot = 0; slot < fishies.size(); slot++) {
+			if (fishies.hitsEdge(slot)) {
+				fishies.reverse(slot);
+			}
+		}
+	}
+
+	// the loop TankModel.updateFishies had before FishStore
+	private static void tick(Set<FishModel> fishies, SplittableRandom random) {
+		for (Iterator<FishModel> it = fishies.iterator(); it.hasNext();) {
+			FishModel fish = it.next();
+			fish.update(random);
+			if (fish.hitsEdge()) {
+				fish.reverse();
+			}
+		}
+	}
+}
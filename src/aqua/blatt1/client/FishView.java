@@ -1,28 +1,55 @@
 package aqua.blatt1.client;
 
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 
 import javax.swing.ImageIcon;
 
 import aqua.blatt1.common.Direction;
 import aqua.blatt1.common.FishModel;
 
+/*
+ * The fish images are scaled once when the class is loaded and kept as sprites in the format of the
+ * screen, so drawing a fish is a plain copy.
+ */
 public class FishView {
-	private static Image imgBlackLeft = new ImageIcon(
-			FishView.class.getResource("/aqua/blatt1/client/resources/piranha-black-left.png"))
-			.getImage().getScaledInstance(FishModel.getXSize(), -1, java.awt.Image.SCALE_SMOOTH);
+	public static final int WIDTH = FishModel.getXSize();
+	public static final int HEIGHT;
 
-	private static Image imgBlackRight = new ImageIcon(
-			FishView.class.getResource("/aqua/blatt1/client/resources/piranha-black-right.png"))
-			.getImage().getScaledInstance(FishModel.getXSize(), -1, java.awt.Image.SCALE_SMOOTH);
+	private static Image imgBlackLeft = loadSprite("/aqua/blatt1/client/resources/piranha-black-left.png");
 
-	private static Image imgRedLeft = new ImageIcon(
-			FishView.class.getResource("/aqua/blatt1/client/resources/piranha-red-left.png"))
-			.getImage().getScaledInstance(FishModel.getXSize(), -1, java.awt.Image.SCALE_SMOOTH);
+	private static Image imgBlackRight = loadSprite("/aqua/blatt1/client/resources/piranha-black-right.png");
 
-	private static Image imgRedRight = new ImageIcon(
-			FishView.class.getResource("/aqua/blatt1/client/resources/piranha-red-right.png"))
-			.getImage().getScaledInstance(FishModel.getXSize(), -1, java.awt.Image.SCALE_SMOOTH);
+	private static Image imgRedLeft = loadSprite("/aqua/blatt1/client/resources/piranha-red-left.png");
+
+	private static Image imgRedRight = loadSprite("/aqua/blatt1/client/resources/piranha-red-right.png");
+
+	static {
+		HEIGHT = imgBlackLeft.getHeight(null);
+	}
+
+	private static BufferedImage loadSprite(String resource) {
+		Image source = new ImageIcon(FishView.class.getResource(resource)).getImage();
+		int height = Math.max(1, source.getHeight(null) * WIDTH / source.getWidth(null));
+
+		BufferedImage sprite;
+		if (GraphicsEnvironment.isHeadless()) {
+			sprite = new BufferedImage(WIDTH, height, BufferedImage.TYPE_INT_ARGB);
+		} else {
+			sprite = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDefaultConfiguration().createCompatibleImage(WIDTH, height, Transparency.TRANSLUCENT);
+		}
+		Graphics2D g2d = sprite.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2d.drawImage(source, 0, 0, WIDTH, height, null);
+		g2d.dispose();
+		return sprite;
+	}
 
 	public Image getImage(FishModel fishModel) {
 		return fishModel.isToggled() ? (fishModel.getDirection() == Direction.LEFT ? imgRedLeft
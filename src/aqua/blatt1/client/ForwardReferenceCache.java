@@ -0,0 +1,142 @@
+package aqua.blatt1.client;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Forward references of the fish that left a tank: the direction each one was handed off to. The
+ * table holds at most capacity entries, evicting the least recently used one, and an entry expires
+ * timeToLive after it was written. A fish without an entry is looked for in the tank itself, so an
+ * evicted reference only ends a location request early, it never sends it the wrong way.
+ *
+ * The map is kept in access order for the LRU eviction, so a second queue keeps the entries in the
+ * order they were written, which is the order they expire in. Entries that left the map are only
+ * marked in the queue and skipped or compacted away later.
+ *
+ * All methods synchronize on the cache.
+ */
+public class ForwardReferenceCache {
+	private static class Entry {
+		final String fishId;
+		final FishReferenceState state;
+		final long written;
+		// no longer in the map: replaced, invalidated, evicted or expired
+		boolean removed = false;
+
+		Entry(String fishId, FishReferenceState state, long written) {
+			this.fishId = fishId;
+			this.state = state;
+			this.written = written;
+		}
+	}
+
+	private final int capacity;
+	private final long timeToLiveNanos;
+	private final LinkedHashMap<String, Entry> entries;
+	private final ArrayDeque<Entry> writeOrder = new ArrayDeque<>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public ForwardReferenceCache(int capacity, long timeToLive, TimeUnit unit) {
+		this.capacity = capacity;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		// access order, so the eldest entry is the least recently used one
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > ForwardReferenceCache.this.capacity) {
+					eldest.getValue().removed = true;
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized void put(String fishId, FishReferenceState state) {
+		long now = System.nanoTime();
+		expireOldest(now);
+		Entry entry = new Entry(fishId, state, now);
+		Entry replaced = entries.put(fishId, entry);
+		if (replaced != null) {
+			replaced.removed = true;
+		}
+		writeOrder.addLast(entry);
+		// at most capacity entries are live, so this runs after at least capacity puts
+		if (writeOrder.size() > 2 * capacity) {
+			writeOrder.removeIf(e -> e.removed);
+		}
+	}
+
+	/*
+	 * Returns the direction the fish was handed off to, or null if the cache has no valid entry.
+	 */
+	public synchronized FishReferenceState get(String fishId) {
+		Entry entry = entries.get(fishId);
+		if (entry != null && System.nanoTime() - entry.written > timeToLiveNanos) {
+			entries.remove(fishId);
+			entry.removed = true;
+			evictions++;
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.state;
+	}
+
+	/*
+	 * Drops the entry of a fish whose location is known otherwise, e.g. because it is back in this
+	 * tank or its home tank was told where it is.
+	 */
+	public synchronized void invalidate(String fishId) {
+		Entry entry = entries.remove(fishId);
+		if (entry != null) {
+			entry.removed = true;
+		}
+	}
+
+	// removes entries in write order until the oldest one still in the map is valid
+	private void expireOldest(long now) {
+		while (!writeOrder.isEmpty()) {
+			Entry oldest = writeOrder.peekFirst();
+			if (!oldest.removed) {
+				if (now - oldest.written <= timeToLiveNanos) {
+					return;
+				}
+				entries.remove(oldest.fishId);
+				oldest.removed = true;
+				evictions++;
+			}
+			writeOrder.pollFirst();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/*
+	 * Entries dropped because the cache was full or they expired, not counting invalidations.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+}
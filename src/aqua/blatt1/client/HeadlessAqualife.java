@@ -0,0 +1,25 @@
+package aqua.blatt1.client;
+
+import messaging.metrics.Metrics;
+
+/*
+ * Runs a tank without GUI. The optional argument is the number of simulation ticks per second. Set
+ * -Dmessaging.metrics.dumpSeconds to print the metrics periodically.
+ */
+public class HeadlessAqualife {
+
+	public static void main(String[] args) {
+		int ticksPerSecond = args.length > 0 ? Integer.parseInt(args[0]) : TankModel.DEFAULT_TICKS_PER_SECOND;
+
+		Metrics.startConfiguredDump();
+		ClientCommunicator communicator = new ClientCommunicator();
+		TankModel tankModel = new TankModel(communicator.newClientForwarder(), ticksPerSecond);
+
+		communicator.newClientReceiver(tankModel).start();
+
+		// deregister when the process is stopped
+		Runtime.getRuntime().addShutdownHook(new Thread(tankModel::finish));
+
+		tankModel.run();
+	}
+}
@@ -0,0 +1,131 @@
+package aqua.blatt1.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import aqua.blatt1.common.Randomness;
+import messaging.metrics.Metrics;
+
+/*
+ * Load test for the broker: starts several headless tanks in one JVM, all registering with the broker
+ * at Properties.HOST and PORT, spawns fish at a fixed rate and prints message and handoff figures
+ * when the run is over.
+ *
+ * Arguments: [tanks] [fish spawned per second and tank] [duration in seconds] [ticks per second]
+ * [maximum fish per tank]. Run with -Daqua.seed=<long> for reproducible fish movement.
+ */
+public class LoadSimulation {
+
+	public static void main(String[] args) throws InterruptedException {
+		int tankCount = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int fishPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+		int ticksPerSecond = args.length > 3 ? Integer.parseInt(args[3]) : TankModel.DEFAULT_TICKS_PER_SECOND;
+		int maxFishies = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+
+		Metrics.startConfiguredDump();
+		List<ClientCommunicator> communicators = new ArrayList<>();
+		List<TankModel> tanks = new ArrayList<>();
+		List<Thread> simulations = new ArrayList<>();
+		for (int i = 0; i < tankCount; i++) {
+			ClientCommunicator communicator = new ClientCommunicator();
+			TankModel tankModel = new TankModel(communicator.newClientForwarder(), ticksPerSecond, maxFishies);
+			communicator.newClientReceiver(tankModel).start();
+
+			Thread simulation = new Thread(tankModel::run, "tank-" + i);
+			simulation.start();
+
+			communicators.add(communicator);
+			tanks.add(tankModel);
+			simulations.add(simulation);
+		}
+
+		ScheduledExecutorService spawner = Executors.newSingleThreadScheduledExecutor();
+		if (fishPerSecond > 0) {
+			RandomGenerator rand = Randomness.newGenerator();
+			spawner.scheduleAtFixedRate(() -> {
+				for (TankModel tankModel : tanks) {
+					// fish ids contain the tank id, so wait for the registration
+					if (tankModel.getId() != null) {
+						tankModel.newFish(rand.nextInt(TankModel.WIDTH), rand.nextInt(TankModel.HEIGHT));
+					}
+				}
+			}, 0, TimeUnit.SECONDS.toMicros(1) / fishPerSecond, TimeUnit.MICROSECONDS);
+		}
+
+		long start = System.nanoTime();
+		TimeUnit.SECONDS.sleep(seconds);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		spawner.shutdownNow();
+		for (Thread simulation : simulations) {
+			simulation.interrupt();
+		}
+		for (TankModel tankModel : tanks) {
+			tankModel.finish();
+		}
+
+		report(communicators, tanks, elapsed);
+		System.exit(0);
+	}
+
+	private static void report(List<ClientCommunicator> communicators, List<TankModel> tanks, double elapsed) {
+		long sent = 0;
+		long received = 0;
+		for (ClientCommunicator communicator : communicators) {
+			sent += communicator.getSentMessageCount();
+			received += communicator.getReceivedMessageCount();
+		}
+
+		long registered = 0;
+		long handedOff = 0;
+		long direct = 0;
+		long buffered = 0;
+		long dropped = 0;
+		long arrived = 0;
+		long ticks = 0;
+		long overruns = 0;
+		long rotationNanos = 0;
+		int rotatingTanks = 0;
+		long references = 0;
+		long referenceHits = 0;
+		long referenceEvictions = 0;
+		for (TankModel tankModel : tanks) {
+			if (tankModel.getId() != null) {
+				registered++;
+			}
+			handedOff += tankModel.getHandedOffFishCount();
+			direct += tankModel.getDirectHandoffCount();
+			buffered += tankModel.getBufferedHandoffCount();
+			dropped += tankModel.getDroppedHandoffCount();
+			arrived += tankModel.getReceivedFishCount();
+			ticks += tankModel.getTickScheduler().getTickCount();
+			overruns += tankModel.getTickScheduler().getOverrunCount();
+			references += tankModel.getForwardReferences().size();
+			referenceHits += tankModel.getForwardReferences().getHitCount();
+			referenceEvictions += tankModel.getForwardReferences().getEvictionCount();
+			if (tankModel.getAverageTokenRotationNanos() > 0) {
+				rotationNanos += tankModel.getAverageTokenRotationNanos();
+				rotatingTanks++;
+			}
+		}
+
+		System.out.printf("Tanks:           %d started, %d registered%n", tanks.size(), registered);
+		System.out.printf("Duration:        %.1f s%n", elapsed);
+		System.out.printf("Messages:        %d sent, %d received (%.0f/s sent)%n", sent, received, sent / elapsed);
+		System.out.printf("Handoffs:        %d fish sent, %d received (%.1f/s)%n", handedOff, arrived,
+				handedOff / elapsed);
+		System.out.printf("Handoff paths:   %d direct (%d after waiting), %d dropped while waiting%n", direct,
+				buffered, dropped);
+		System.out.printf("Token rotation:  %s%n", rotatingTanks == 0 ? "no full rotation"
+				: String.format("%.1f ms average", rotationNanos / rotatingTanks / 1e6));
+		System.out.printf("Ticks:           %d (%.0f/s per tank), %d overruns%n", ticks,
+				ticks / elapsed / tanks.size(), overruns);
+		System.out.printf("Forward refs:    %d entries, %d hits, %d evictions%n", references, referenceHits,
+				referenceEvictions);
+	}
+}
@@ -0,0 +1,119 @@
+package aqua.blatt1.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
+
+import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.Randomness;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
+
+/*
+ * Measures how long locating a fish takes depending on the size of the ring. For every ring size it
+ * starts that many headless tanks, which register with the broker at Properties.HOST and PORT, lets
+ * fish created in the first tank travel, and then locates those that are in another tank from the
+ * first tank one at a time. A lookup is done when the fish changed its color in whatever tank it is.
+ * Fish at home or between two tanks are skipped. The token stays in a tank for two seconds, so the
+ * fish travel for a time proportional to the ring size. With the home agent a lookup
+ * takes one LocationRequest, or two when the fish moved on since it was last reported, whatever the
+ * ring size; following forward references took up to one request per tank.
+ *
+ * Arguments: [ring sizes, e.g. 2,8,32] [lookups per ring size] [seconds the fish travel per tank].
+ */
+public class LocationBenchmark {
+	private static final int FISH = 20;
+	private static final long LOOKUP_TIMEOUT_MILLIS = 1000;
+
+	public static void main(String[] args) throws InterruptedException {
+		int[] ringSizes = args.length > 0 ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 2, 8, 32 };
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int travelSecondsPerTank = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		System.out.printf("%6s %8s %8s %10s %10s %10s %8s%n", "tanks", "lookups", "skipped", "mean us", "p50 us",
+				"p99 us", "hops");
+		for (int size : ringSizes) {
+			run(size, lookups, travelSecondsPerTank * size);
+		}
+		System.exit(0);
+	}
+
+	private static void run(int size, int lookups, int travelSeconds) throws InterruptedException {
+		List<TankModel> tanks = new ArrayList<>();
+		List<Thread> simulations = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			ClientCommunicator communicator = new ClientCommunicator();
+			TankModel tankModel = new TankModel(communicator.newClientForwarder(),
+					TankModel.DEFAULT_TICKS_PER_SECOND, FISH);
+			communicator.newClientReceiver(tankModel).start();
+			Thread simulation = new Thread(tankModel::run, "tank-" + i);
+			simulation.start();
+			tanks.add(tankModel);
+			simulations.add(simulation);
+		}
+		TankModel home = tanks.get(0);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (tanks.stream().anyMatch(tank -> tank.getId() == null) && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		RandomGenerator rand = Randomness.newGenerator();
+		for (int i = 0; i < FISH; i++) {
+			home.newFish(rand.nextInt(TankModel.WIDTH), rand.nextInt(TankModel.HEIGHT));
+		}
+		TimeUnit.SECONDS.sleep(travelSeconds);
+
+		LatencyHistogram latency = Metrics.histogram("benchmark.locate");
+		LatencyHistogram requests = Metrics.histogram("client.LocationRequest");
+		latency.reset();
+		long requestsBefore = requests.getCount();
+		int skipped = 0;
+		for (int i = 0; i < lookups; i++) {
+			String fishId = "fish" + (1 + i % FISH) + "@" + home.getId();
+			Boolean toggled = toggledState(tanks, fishId);
+			if (toggled == null || toggledState(List.of(home), fishId) != null) {
+				skipped++;
+				continue;
+			}
+			long start = System.nanoTime();
+			home.locateFish(fishId);
+			long timeout = start + TimeUnit.MILLISECONDS.toNanos(LOOKUP_TIMEOUT_MILLIS);
+			while (!Boolean.valueOf(!toggled).equals(toggledState(tanks, fishId)) && System.nanoTime() < timeout) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(20));
+			}
+			if (System.nanoTime() < timeout) {
+				latency.recordSince(start);
+			} else {
+				// lost on the way, e.g. the fish was handed off while the request followed it
+				skipped++;
+			}
+		}
+		double hops = (double) (requests.getCount() - requestsBefore) / Math.max(1, latency.getCount());
+		System.out.printf("%6d %8d %8d %10.1f %10.1f %10.1f %8.2f%n", size, latency.getCount(), skipped,
+				latency.getMean() / 1e3, latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3, hops);
+
+		for (Thread simulation : simulations) {
+			simulation.interrupt();
+		}
+		for (TankModel tankModel : tanks) {
+			tankModel.finish();
+		}
+	}
+
+	// whether the fish is toggled in the tank it is in, null if no tank has it
+	private static Boolean toggledState(List<TankModel> tanks, String fishId) {
+		for (TankModel tank : tanks) {
+			for (Iterator<FishModel> it = tank.iterator(); it.hasNext();) {
+				FishModel fish = it.next();
+				if (fish.getId().equals(fishId)) {
+					return fish.isToggled();
+				}
+			}
+		}
+		return null;
+	}
+}
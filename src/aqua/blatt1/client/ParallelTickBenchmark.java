@@ -0,0 +1,45 @@
+package aqua.blatt1.client;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Measures how the ticks of a large tank scale with the number of cores. FishStore moves its chunks
+ * in parallel on the fork/join pool the tick runs in, so running the tick in a ForkJoinPool of p
+ * threads limits it to p cores. For 100000 and 1000000 fish it prints the ticks per second for 1, 2,
+ * 4, 8 and 16 threads and the speedup over one thread. Thread counts above the available processors
+ * show the overhead of oversubscription.
+ *
+ * Arguments: [seconds per measurement].
+ */
+public class ParallelTickBenchmark {
+	private static final int[] SIZES = { 100000, 1000000 };
+	private static final int[] PARALLELISM = { 1, 2, 4, 8, 16 };
+
+	public static void main(String[] args) {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+
+		System.out.printf("%d available processors%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %8s %10s %8s%n", "fish", "threads", "ticks/s", "speedup");
+		for (int size : SIZES) {
+			FishStore store = new FishStore(new SplittableRandom(1));
+			SplittableRandom random = new SplittableRandom(2);
+			for (int i = 0; i < size; i++) {
+				store.add(FishStoreBenchmark.randomFish(random, i));
+			}
+			double single = 0;
+			for (int parallelism : PARALLELISM) {
+				ForkJoinPool pool = new ForkJoinPool(parallelism);
+				Runnable tick = () -> pool.submit(() -> FishStoreBenchmark.tick(store)).join();
+				// the first run warms up the JIT and the pool's threads
+				FishStoreBenchmark.ticksPerSecond(tick, 1);
+				double ticks = FishStoreBenchmark.ticksPerSecond(tick, seconds);
+				pool.shutdown();
+				if (parallelism == 1) {
+					single = ticks;
+				}
+				System.out.printf("%8d %8d %10.1f %7.2fx%n", size, parallelism, ticks, ticks / single);
+			}
+		}
+	}
+}
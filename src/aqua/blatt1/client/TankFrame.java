@@ -0,0 +1,51 @@
+package aqua.blatt1.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import aqua.blatt1.common.FishModel;
+
+/*
+ * State of a tank after a round of ticks, published by TankModel for the views. The fish are copies
+ * that nobody modifies, so a frame can be read on any thread without locking the model.
+ */
+public final class TankFrame implements Iterable<FishModel> {
+	static final TankFrame EMPTY = new TankFrame(null, false, Collections.<FishModel>emptyList(), 0);
+
+	private final String tankId;
+	private final boolean hasToken;
+	private final List<FishModel> fishies;
+	private final long tick;
+
+	TankFrame(String tankId, boolean hasToken, List<FishModel> fishies, long tick) {
+		this.tankId = tankId;
+		this.hasToken = hasToken;
+		this.fishies = Collections.unmodifiableList(fishies);
+		this.tick = tick;
+	}
+
+	public String getTankId() {
+		return tankId;
+	}
+
+	public boolean hasToken() {
+		return hasToken;
+	}
+
+	public int size() {
+		return fishies.size();
+	}
+
+	/*
+	 * Number of ticks the tank had run when the frame was taken.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	@Override
+	public Iterator<FishModel> iterator() {
+		return fishies.iterator();
+	}
+}
@@ -1,20 +1,28 @@
 package aqua.blatt1.client;
 
 import java.net.InetSocketAddress;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Optional;
-import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator.SplittableGenerator;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import aqua.blatt1.common.Direction;
 import aqua.blatt1.common.FishModel;
+import aqua.blatt1.common.Randomness;
+
+import messaging.metrics.Counter;
+import messaging.metrics.Metrics;
 
 @SuppressWarnings("deprecation")
 public class TankModel extends Observable implements Iterable<FishModel> {
@@ -22,16 +30,62 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 	public static final int WIDTH = 600;
 	public static final int HEIGHT = 350;
 	protected static final int MAX_FISHIES = 5;
-	protected static final Random rand = new Random();
+	public static final int DEFAULT_TICKS_PER_SECOND = 100;
+	protected static final int MAX_CATCH_UP_TICKS = 10;
+	protected static final int FORWARD_REFERENCE_CAPACITY = 10000;
+	protected static final long FORWARD_REFERENCE_TTL_MINUTES = 30;
+	// fish kept per direction while the neighbor is unknown, further leaving fish are dropped
+	protected static final int MAX_WAITING_HANDOFFS = 10000;
+	// a tank repeats its RegisterRequest after about this long, and then less and less often
+	protected static final long REGISTER_RETRY_MILLIS = 1000;
+	protected static final long MAX_REGISTER_RETRY_MILLIS = 16 * 1000;
+	// only used while holding the monitor
+	protected final SplittableGenerator rand;
 	protected volatile String id;
-	protected final Set<FishModel> fishies;
+	protected final FishStore fishies;
+	protected final int maxFishies;
 	protected int fishCounter = 0;
 	protected final ClientCommunicator.ClientForwarder forwarder;
+	private final TickScheduler tickScheduler;
 	private Optional<InetSocketAddress> rightNeighbor = Optional.empty();
 	private Optional<InetSocketAddress> leftNeigbor = Optional.empty();
-	private boolean hasToken = false;
-	private static final Timer tokenTimer = new Timer();
-	private static final Timer leaseTimer = new Timer();
+	// version of the neighbor views, updates older than these are ignored
+	private long rightNeighborVersion = Long.MIN_VALUE;
+	private long leftNeighborVersion = Long.MIN_VALUE;
+	private volatile boolean hasToken = false;
+	// id of the token held and the highest id received; a token with a lower id is a duplicate
+	private long tokenId;
+	private long newestTokenId = Long.MIN_VALUE;
+	private final AtomicReference<TankFrame> frame = new AtomicReference<>(TankFrame.EMPTY);
+	// per tank, so that several tanks can run in one JVM
+	private final Timer tokenTimer = new Timer();
+	private final Timer leaseTimer = new Timer();
+	private TimerTask leaseRenewal;
+	private TimerTask registerRetry;
+	private int leaseDuration;
+	// set by finish, the timers are cancelled then and must not be scheduled again
+	private boolean finished = false;
+	private volatile Consumer<String> fishCreatedListener = fishId -> {
+	};
+	private volatile IntConsumer globalSnapshotListener = total -> System.out
+			.println("Global snapshot: " + total + " fish in the system");
+
+	// totals of all tanks in the process, next to the counters of this tank
+	private static final Counter totalHandedOffFish = Metrics.counter("tank.handoffs");
+	private static final Counter totalDirectHandoffs = Metrics.counter("tank.handoffs.direct");
+	private static final Counter totalBufferedHandoffs = Metrics.counter("tank.handoffs.buffered");
+	private static final Counter totalDroppedHandoffs = Metrics.counter("tank.handoffs.dropped");
+	private static final Counter totalReceivedFish = Metrics.counter("tank.received");
+	private static final Counter totalDroppedTokens = Metrics.counter("tank.tokens.dropped");
+	private final LongAdder handedOffFish = new LongAdder();
+	private final LongAdder receivedFish = new LongAdder();
+	private final LongAdder directHandoffs = new LongAdder();
+	private final LongAdder bufferedHandoffs = new LongAdder();
+	private final LongAdder droppedHandoffs = new LongAdder();
+	// only written by the receiving thread
+	private volatile long lastTokenNanos = 0;
+	private volatile long tokenRotations = 0;
+	private volatile long totalTokenRotationNanos = 0;
 
 	private SnapshotRecordingMode snapshotMode = SnapshotRecordingMode.IDLE;
 	private int localSnapshot = 0;
@@ -41,30 +95,108 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 	private int inTransitFishLeft = 0;
 	private int inTransitFishRight = 0;
 
+	private final HandoffBuffer leftHandoffs = new HandoffBuffer();
+	private final HandoffBuffer rightHandoffs = new HandoffBuffer();
+
 	// Forward references for Task 1
-	private final Map<String, FishReferenceState> forwardReferences = new ConcurrentHashMap<>();
+	private final ForwardReferenceCache forwardReferences = new ForwardReferenceCache(
+			FORWARD_REFERENCE_CAPACITY, FORWARD_REFERENCE_TTL_MINUTES, TimeUnit.MINUTES);
+	// home agent: the tank each fish created here was last reported in, absent while it is here
+	private final Map<String, InetSocketAddress> homeLocations = new ConcurrentHashMap<>();
+	// addresses of other tanks as resolved by the broker
+	private final Map<String, InetSocketAddress> tankAddresses = new ConcurrentHashMap<>();
 
 	public TankModel(ClientCommunicator.ClientForwarder forwarder) {
-		this.fishies = Collections.newSetFromMap(new ConcurrentHashMap<FishModel, Boolean>());
+		this(forwarder, DEFAULT_TICKS_PER_SECOND);
+	}
+
+	public TankModel(ClientCommunicator.ClientForwarder forwarder, int ticksPerSecond) {
+		this(forwarder, ticksPerSecond, MAX_FISHIES);
+	}
+
+	public TankModel(ClientCommunicator.ClientForwarder forwarder, int ticksPerSecond, int maxFishies) {
+		this(forwarder, ticksPerSecond, maxFishies, Randomness.newGenerator());
+	}
+
+	public TankModel(ClientCommunicator.ClientForwarder forwarder, int ticksPerSecond, int maxFishies,
+			SplittableGenerator rand) {
+		this.rand = rand;
+		this.fishies = new FishStore(rand.split());
+		this.maxFishies = maxFishies;
 		this.forwarder = forwarder;
+		this.tickScheduler = new TickScheduler(ticksPerSecond, MAX_CATCH_UP_TICKS);
+	}
+
+	/*
+	 * Sends the RegisterRequest and repeats it until the broker answers, as the request or the
+	 * response may be lost. The delay doubles with every retry up to MAX_REGISTER_RETRY_MILLIS, and is
+	 * randomized, so that the retries of many tanks starting together do not overload the broker.
+	 */
+	synchronized void register() {
+		if (finished) {
+			return;
+		}
+		forwarder.register();
+		if (registerRetry == null) {
+			scheduleRegisterRetry(REGISTER_RETRY_MILLIS);
+		}
+	}
+
+	private void scheduleRegisterRetry(long delay) {
+		registerRetry = new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (TankModel.this) {
+					// cancelled by onRegistration while waiting for the monitor
+					if (registerRetry != this) {
+						return;
+					}
+					forwarder.register();
+					scheduleRegisterRetry(Math.min(2 * delay, MAX_REGISTER_RETRY_MILLIS));
+				}
+			}
+		};
+		leaseTimer.schedule(registerRetry, delay / 2 + rand.nextLong(delay));
 	}
 
 	synchronized void onRegistration(String id, int leaseDuration) {
+		if (registerRetry != null) {
+			registerRetry.cancel();
+			registerRetry = null;
+		}
+		boolean registered = this.id != null;
 		this.id = id;
-		newFish(WIDTH - FishModel.getXSize(), rand.nextInt(HEIGHT - FishModel.getYSize()));
+		// another broker taking over the tank registers it again, which keeps the fish
+		if (!registered) {
+			newFish(WIDTH - FishModel.getXSize(), rand.nextInt(HEIGHT - FishModel.getYSize()));
+		}
+		onLeaseUpdate(leaseDuration);
+	}
 
-		// start lease timer that reregisters with the broker
-		leaseTimer.schedule(new TimerTask() {
+	/*
+	 * (Re)starts the lease timer that renews the lease twice per lease duration. A renewal is skipped
+	 * when other messages to the broker renewed the lease recently.
+	 */
+	synchronized void onLeaseUpdate(int leaseDuration) {
+		if (finished || leaseDuration == this.leaseDuration) {
+			return;
+		}
+		this.leaseDuration = leaseDuration;
+		if (leaseRenewal != null) {
+			leaseRenewal.cancel();
+		}
+		int interval = leaseDuration / 2;
+		leaseRenewal = new TimerTask() {
 			@Override
 			public void run() {
-				forwarder.register();
+				forwarder.renewLease(interval / 2);
 			}
-		}, leaseDuration / 2, leaseDuration / 2);
-		
+		};
+		leaseTimer.schedule(leaseRenewal, interval, interval);
 	}
 
 	public synchronized void newFish(int x, int y) {
-		if (fishies.size() < MAX_FISHIES) {
+		if (fishies.size() < maxFishies) {
 			x = x > WIDTH - FishModel.getXSize() - 1 ? WIDTH - FishModel.getXSize() - 1 : x;
 			y = y > HEIGHT - FishModel.getYSize() ? HEIGHT - FishModel.getYSize() : y;
 
@@ -72,24 +204,144 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 					rand.nextBoolean() ? Direction.LEFT : Direction.RIGHT);
 
 			fishies.add(fish);
-			forwardReferences.put(fish.getId(), FishReferenceState.HERE);
+			forwardReferences.invalidate(fish.getId());
+			fishCreatedListener.accept(fish.getId());
 		}
 	}
 
-	synchronized void receiveFish(FishModel fish) {
-		fish.setToStart();
-		fishies.add(fish);
-		forwardReferences.put(fish.getId(), FishReferenceState.HERE);
+	void receiveFish(FishModel fish) {
+		synchronized (this) {
+			receivedFish.increment();
+			totalReceivedFish.increment();
+			fish.setToStart();
+			fishies.add(fish);
+			forwardReferences.invalidate(fish.getId());
+		}
+		reportLocation(fish);
+	}
+
+	/*
+	 * Tells the home tank of an arriving fish that the fish is here. The home tank's address is
+	 * resolved through the broker once and cached afterwards. Called outside the model monitor, it
+	 * only reads the id and the concurrent maps.
+	 */
+	private void reportLocation(FishModel fish) {
+		String homeTank = fish.getTankId();
+		if (homeTank.equals(id)) {
+			homeLocations.remove(fish.getId());
+			return;
+		}
+		InetSocketAddress home = tankAddresses.get(homeTank);
+		if (home == null) {
+			forwarder.sendNameResolutionRequest(homeTank, fish.getId());
+		} else {
+			forwarder.sendLocationUpdate(home, fish.getId());
+		}
+	}
+
+	// the request id of the name resolution is the id of the fish to report
+	void onNameResolved(InetSocketAddress address, String fishId) {
+		if (address == null) {
+			// the home tank has left
+			return;
+		}
+		tankAddresses.put(FishModel.tankIdOf(fishId), address);
+		forwarder.sendLocationUpdate(address, fishId);
+	}
+
+	void onLocationUpdate(String fishId, InetSocketAddress location) {
+		homeLocations.put(fishId, location);
+		// the home agent knows better than the forward reference from when the fish left
+		forwardReferences.invalidate(fishId);
+	}
+
+	void onNewNeighbor(InetSocketAddress address, Direction direction, long version) {
+		Handoff waiting = null;
+		synchronized (this) {
+			switch (direction) {
+				case Direction.LEFT:
+					if (version > leftNeighborVersion) {
+						leftNeighborVersion = version;
+						leftNeigbor = Optional.of(address);
+						waiting = leftHandoffs.flush(leftNeigbor);
+					}
+					break;
+				case Direction.RIGHT:
+					if (version > rightNeighborVersion) {
+						rightNeighborVersion = version;
+						rightNeighbor = Optional.of(address);
+						waiting = rightHandoffs.flush(rightNeighbor);
+					}
+					break;
+			}
+		}
+		handOff(waiting);
 	}
 
-	synchronized void onNewNeighbor(InetSocketAddress address, Direction direction) {
-		switch (direction) {
-			case Direction.LEFT:
-				leftNeigbor = Optional.of(address);
-				break;
-			case Direction.RIGHT:
-				rightNeighbor = Optional.of(address);
-				break;
+	// fish taken out of a HandoffBuffer, sent by handOff once the model monitor is released
+	private static class Handoff {
+		private final List<FishModel> fishies;
+		private final InetSocketAddress neighbor;
+
+		Handoff(List<FishModel> fishies, InetSocketAddress neighbor) {
+			this.fishies = fishies;
+			this.neighbor = neighbor;
+		}
+	}
+
+	/*
+	 * Fish leaving the tank in one direction, sent to the neighbor at the end of the tick. While the
+	 * neighbor is unknown, e.g. right after the registration, they wait until a neighbor view names it.
+	 * At most MAX_WAITING_HANDOFFS fish wait, further ones are dropped and counted. Only used while
+	 * holding the monitor.
+	 */
+	private class HandoffBuffer {
+		private List<FishModel> fishies = new ArrayList<>();
+		// whether the fish had to wait for the neighbor
+		private boolean waiting = false;
+
+		void add(FishModel fish) {
+			if (fishies.size() < MAX_WAITING_HANDOFFS) {
+				fishies.add(fish);
+			} else {
+				droppedHandoffs.increment();
+				totalDroppedHandoffs.increment();
+				// the fish is gone, a search must not follow it
+				forwardReferences.invalidate(fish.getId());
+			}
+		}
+
+		/*
+		 * Takes the fish that are to be sent now, or returns null if there are none or they wait for the
+		 * neighbor.
+		 */
+		Handoff flush(Optional<InetSocketAddress> neighbor) {
+			if (fishies.isEmpty()) {
+				return null;
+			}
+			if (!neighbor.isPresent()) {
+				waiting = true;
+				return null;
+			}
+			directHandoffs.add(fishies.size());
+			totalDirectHandoffs.add(fishies.size());
+			if (waiting) {
+				bufferedHandoffs.add(fishies.size());
+				totalBufferedHandoffs.add(fishies.size());
+			}
+			handedOffFish.add(fishies.size());
+			totalHandedOffFish.add(fishies.size());
+			Handoff handoff = new Handoff(fishies, neighbor.get());
+			fishies = new ArrayList<>();
+			waiting = false;
+			return handoff;
+		}
+	}
+
+	// encrypts and sends, so it is called outside the model monitor like reportLocation
+	private void handOff(Handoff handoff) {
+		if (handoff != null) {
+			forwarder.handOff(handoff.fishies, handoff.neighbor);
 		}
 	}
 
@@ -101,58 +353,153 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 		return fishCounter;
 	}
 
+	/*
+	 * Iterates over copies of the fish taken when the iterator is created.
+	 */
 	public synchronized Iterator<FishModel> iterator() {
-		return fishies.iterator();
-	}
-
-	private synchronized void updateFishies() {
-		for (Iterator<FishModel> it = iterator(); it.hasNext();) {
-			FishModel fish = it.next();
-
-			fish.update();
-
-			if (fish.hitsEdge()) {
-				if (hasToken()) {
-					switch (fish.getDirection()) {
-						case LEFT:
-							forwarder.handOff(fish, leftNeigbor);
-							forwardReferences.put(fish.getId(), FishReferenceState.LEFT);
-							break;
-						case RIGHT:
-							forwarder.handOff(fish, rightNeighbor);
-							forwardReferences.put(fish.getId(), FishReferenceState.RIGHT);
-							break;
+		List<FishModel> copies = new ArrayList<>(fishies.size());
+		for (int slot = 0; slot < fishies.size(); slot++)
+			copies.add(fishies.get(slot));
+		return copies.iterator();
+	}
+
+	private void updateFishies() {
+		Handoff left;
+		Handoff right;
+		synchronized (this) {
+			// move all fish (in parallel for large tanks), then hand off and remove them in slot order
+			fishies.updateAll();
+
+			for (int slot = 0; slot < fishies.size();) {
+				if (fishies.hitsEdge(slot)) {
+					if (hasToken()) {
+						switch (fishies.getDirection(slot)) {
+							case LEFT:
+								leftHandoffs.add(fishies.get(slot));
+								forwardReferences.put(fishies.getId(slot), FishReferenceState.LEFT);
+								break;
+							case RIGHT:
+								rightHandoffs.add(fishies.get(slot));
+								forwardReferences.put(fishies.getId(slot), FishReferenceState.RIGHT);
+								break;
+						}
+					} else {
+						fishies.reverse(slot);
 					}
-				} else {
-					fish.reverse();
 				}
+
+				// the last fish moves into a removed fish's slot and is checked next
+				if (fishies.disappears(slot))
+					fishies.remove(slot);
+				else
+					slot++;
 			}
 
-			if (fish.disappears())
-				it.remove();
+			// fish leaving in the same direction during this tick are handed off together
+			left = leftHandoffs.flush(leftNeigbor);
+			right = rightHandoffs.flush(rightNeighbor);
 		}
+		handOff(left);
+		handOff(right);
 	}
 
-	private synchronized void update() {
-		updateFishies();
+	// called after the ticks of one scheduler round, outside the model monitor
+	private void notifyFrame() {
+		// frames are only copied when somebody renders them
+		if (countObservers() == 0) {
+			return;
+		}
+		frame.set(takeFrame());
 		setChanged();
 		notifyObservers();
 	}
 
+	private synchronized TankFrame takeFrame() {
+		List<FishModel> copies = new ArrayList<>(fishies.size());
+		for (int slot = 0; slot < fishies.size(); slot++)
+			copies.add(fishies.get(slot));
+		return new TankFrame(id, hasToken, copies, tickScheduler.getTickCount());
+	}
+
+	/*
+	 * The latest frame published to the observers. Never blocks the simulation.
+	 */
+	public TankFrame getFrame() {
+		return frame.get();
+	}
+
 	protected void run() {
-		forwarder.register();
+		register();
 
 		try {
-			while (!Thread.currentThread().isInterrupted()) {
-				update();
-				TimeUnit.MILLISECONDS.sleep(10);
-			}
+			tickScheduler.run(this::updateFishies, this::notifyFrame);
 		} catch (InterruptedException consumed) {
 			// allow method to terminate
 		}
 	}
 
+	public TickScheduler getTickScheduler() {
+		return tickScheduler;
+	}
+
+	/*
+	 * Receives the id of every fish created in this tank. Called while holding the model monitor, so
+	 * the listener must not block.
+	 */
+	public void setFishCreatedListener(Consumer<String> fishCreatedListener) {
+		this.fishCreatedListener = fishCreatedListener;
+	}
+
+	/*
+	 * Receives the fish count of global snapshots initiated by this tank. Prints it by default.
+	 */
+	public void setGlobalSnapshotListener(IntConsumer globalSnapshotListener) {
+		this.globalSnapshotListener = globalSnapshotListener;
+	}
+
+	public ForwardReferenceCache getForwardReferences() {
+		return forwardReferences;
+	}
+
+	public long getHandedOffFishCount() {
+		return handedOffFish.sum();
+	}
+
+	public long getReceivedFishCount() {
+		return receivedFish.sum();
+	}
+
+	/*
+	 * Fish sent straight to a neighbor, including those that waited for the neighbor to be known.
+	 */
+	public long getDirectHandoffCount() {
+		return directHandoffs.sum();
+	}
+
+	/*
+	 * Fish that waited for the neighbor before they were sent to it.
+	 */
+	public long getBufferedHandoffCount() {
+		return bufferedHandoffs.sum();
+	}
+
+	/*
+	 * Fish dropped because MAX_WAITING_HANDOFFS fish were already waiting for the neighbor.
+	 */
+	public long getDroppedHandoffCount() {
+		return droppedHandoffs.sum();
+	}
+
+	/*
+	 * Average time for the token to travel once around the ring, 0 if it has not come back yet.
+	 */
+	public long getAverageTokenRotationNanos() {
+		long rotations = tokenRotations;
+		return rotations == 0 ? 0 : totalTokenRotationNanos / rotations;
+	}
+
 	public synchronized void finish() {
+		finished = true;
 		forwarder.deregister(id);
 		leaseTimer.cancel();
 		tokenTimer.cancel();
@@ -162,14 +509,43 @@ public class TankModel extends Observable implements Iterable<FishModel> {
 		return hasToken;
 	}
 
-	public void receiveToken() {
+	/*
+	 * Keeps the token for two seconds and passes it on to the right neighbor. Of two tokens in the
+	 * ring, every tank that has seen the newer one drops the older one, so the ring is back to one
+	 * token after a rotation. A newer token arriving while one is held replaces it.
+	 */
+	public synchronized void receiveToken(long tokenId) {
+		if (finished) {
+			return;
+		}
+		if (tokenId < newestTokenId || hasToken) {
+			totalDroppedTokens.increment();
+			if (tokenId > newestTokenId) {
+				newestTokenId = tokenId;
+				this.tokenId = tokenId;
+			}
+			return;
+		}
+		newestTokenId = tokenId;
+		this.tokenId = tokenId;
+		long now = System.nanoTime();
+		if (lastTokenNanos != 0) {
+			totalTokenRotationNanos += now - lastTokenNanos;
+			tokenRotations++;
+		}
+		lastTokenNanos = now;
 		hasToken = true;
 		tokenTimer.schedule(new TimerTask() {
 			@Override
 			public void run() {
-				InetSocketAddress address = rightNeighbor.get();
-				forwarder.handOffToken(address);
-				hasToken = false;
+				InetSocketAddress address;
+				long passed;
+				synchronized (TankModel.this) {
+					address = rightNeighbor.get();
+					passed = TankModel.this.tokenId;
+					hasToken = false;
+				}
+				forwarder.handOffToken(address, passed);
 			}
 		}, 2*1000);
 	}
@@ -191,8 +567,8 @@ public class TankModel extends Observable implements Iterable<FishModel> {
     private int getLocalFishCount() {
         // Only count fish that are not disappearing (not in handoff animation)
         int count = 0;
-        for (FishModel fish : fishies) {
-            if (!fish.disappears()) count++;
+        for (int slot = 0; slot < fishies.size(); slot++) {
+            if (!fishies.disappears(slot)) count++;
         }
         return count;
     }
@@ -224,17 +600,23 @@ public class TankModel extends Observable implements Iterable<FishModel> {
         }
     }
 
-    public synchronized void receiveFish(FishModel fish, Direction dir) {
-        fish.setToStart();
-        fishies.add(fish);
-        forwardReferences.put(fish.getId(), FishReferenceState.HERE);
-        // If in recording mode, add to in-transit count
-        if (snapshotMode == SnapshotRecordingMode.LEFT && dir == Direction.LEFT) inTransitFishLeft++;
-        if (snapshotMode == SnapshotRecordingMode.RIGHT && dir == Direction.RIGHT) inTransitFishRight++;
-        if (snapshotMode == SnapshotRecordingMode.BOTH) {
-            if (dir == Direction.LEFT) inTransitFishLeft++;
-            if (dir == Direction.RIGHT) inTransitFishRight++;
+    public void receiveFish(FishModel fish, Direction dir) {
+        synchronized (this) {
+            receivedFish.increment();
+            totalReceivedFish.increment();
+            fish.setToStart();
+            fishies.add(fish);
+            forwardReferences.invalidate(fish.getId());
+            // If in recording mode, add to in-transit count
+            if (snapshotMode == SnapshotRecordingMode.LEFT && dir == Direction.LEFT) inTransitFishLeft++;
+            if (snapshotMode == SnapshotRecordingMode.RIGHT && dir == Direction.RIGHT) inTransitFishRight++;
+            if (snapshotMode == SnapshotRecordingMode.BOTH) {
+                if (dir == Direction.LEFT) inTransitFishLeft++;
+                if (dir == Direction.RIGHT) inTransitFishRight++;
+            }
         }
+        // sent after releasing the monitor, like the frames in notifyFrame
+        reportLocation(fish);
     }
 
     public synchronized void receiveSnapshotToken(int sum, boolean initiator) {
@@ -244,7 +626,7 @@ public class TankModel extends Observable implements Iterable<FishModel> {
             total = sum + inTransitFishLeft + inTransitFishRight;
             // Dialog asynchron, Token-Weitergabe vor Dialog!
             leftNeigbor.ifPresent(addr -> forwarder.sendSnapshotToken(addr, total, initiator));
-            new Thread(() -> TankView.showGlobalSnapshot(total)).start();
+            globalSnapshotListener.accept(total);
             snapshotInitiator = false;
         } else {
             total = sum + localSnapshot + inTransitFishLeft + inTransitFishRight;
@@ -259,6 +641,24 @@ public class TankModel extends Observable implements Iterable<FishModel> {
         return rightNeighbor;
     }
 
+    /*
+     * Locates a fish created in this tank. The home agent knows which tank the fish was last
+     * reported in, so the request takes one hop; if the fish has moved on since, that tank follows
+     * its forward references.
+     */
+    public void locateFish(String fishId) {
+        InetSocketAddress location = homeLocations.get(fishId);
+        if (location != null && !hasFish(fishId)) {
+            forwarderSendLocationRequest(location, fishId);
+        } else {
+            locateFishGlobally(fishId);
+        }
+    }
+
+    private synchronized boolean hasFish(String fishId) {
+        return fishies.slotOf(fishId) != -1;
+    }
+
     public void locateFishGlobally(String fishId) {
         FishReferenceState state = forwardReferences.get(fishId);
         if (state == null || state == FishReferenceState.HERE) {
@@ -271,14 +671,15 @@ public class TankModel extends Observable implements Iterable<FishModel> {
     }
 
     private void locateFishLocally(String fishId) {
-        for (FishModel fish : fishies) {
-            if (fish.getId().equals(fishId)) {
-                fish.toggle();
-                setChanged();
-                notifyObservers();
-                break;
+        synchronized (this) {
+            int slot = fishies.slotOf(fishId);
+            if (slot == -1) {
+                return;
             }
+            fishies.toggle(slot);
         }
+        setChanged();
+        notifyObservers();
     }
 
     private void forwarderSendLocationRequest(InetSocketAddress addr, String fishId) {
@@ -2,12 +2,20 @@ package aqua.blatt1.client;
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -17,9 +25,19 @@ import aqua.blatt1.common.FishModel;
 
 @SuppressWarnings("deprecation")
 public class TankView extends JPanel implements Observer {
+	// painting a region tests every fish against it, so only a few regions are painted separately
+	private static final int MAX_SEPARATE_REGIONS = 16;
+	private static final double FULL_REPAINT_SHARE = 0.5;
+
 	private final TankModel tankModel;
 	private final FishView fishView;
 	private final Runnable repaintRunnable;
+	// set while a repaintRunnable is queued, so that model notifications coalesce into one
+	private final AtomicBoolean repaintPending = new AtomicBoolean();
+
+	// the frame to paint and its fish by id, only accessed on the event dispatch thread
+	private transient TankFrame frame = TankFrame.EMPTY;
+	private transient Map<String, FishModel> drawn = new HashMap<>();
 
 	public TankView(final TankModel tankModel) {
 		this.tankModel = tankModel;
@@ -28,7 +46,8 @@ public class TankView extends JPanel implements Observer {
 		repaintRunnable = new Runnable() {
 			@Override
 			public void run() {
-				repaint();
+				repaintPending.set(false);
+				repaintChangedRegions();
 			}
 		};
 
@@ -43,6 +62,72 @@ public class TankView extends JPanel implements Observer {
 		});
 	}
 
+	/*
+	 * Takes the latest frame of the model and repaints the areas of the fish that moved, appeared or
+	 * disappeared. The repaint manager would merge separate dirty regions into their bounding rectangle,
+	 * which for fish spread over the tank is about the whole tank, so a few regions are painted one by
+	 * one right away instead.
+	 */
+	private void repaintChangedRegions() {
+		List<Rectangle> changed = changedRegions(tankModel.getFrame());
+		if (changed.size() == 1) {
+			repaint(changed.get(0));
+		} else {
+			for (Rectangle region : changed) {
+				paintImmediately(region);
+			}
+		}
+	}
+
+	/*
+	 * Makes next the frame to paint and returns the regions that differ from the frame painted before,
+	 * each covering the old and the new position of a changed fish. More than MAX_SEPARATE_REGIONS
+	 * regions, or regions covering more than FULL_REPAINT_SHARE of the tank, are cheaper to paint at
+	 * once, so then the whole tank is returned as the only region.
+	 */
+	List<Rectangle> changedRegions(TankFrame next) {
+		if (next == frame) {
+			return Collections.emptyList();
+		}
+		FontMetrics metrics = getFontMetrics(getFont());
+		Map<String, FishModel> nextDrawn = new HashMap<>(next.size() * 2);
+		List<Rectangle> changed = new ArrayList<>();
+		for (FishModel fish : next) {
+			nextDrawn.put(fish.getId(), fish);
+
+			FishModel old = drawn.remove(fish.getId());
+			if (old == null) {
+				changed.add(boundsOf(fish, metrics));
+			} else if (old.getX() != fish.getX() || old.getY() != fish.getY()
+					|| old.getDirection() != fish.getDirection() || old.isToggled() != fish.isToggled()) {
+				changed.add(boundsOf(old, metrics).union(boundsOf(fish, metrics)));
+			}
+		}
+		for (FishModel gone : drawn.values()) {
+			changed.add(boundsOf(gone, metrics));
+		}
+		drawn = nextDrawn;
+
+		double area = 0;
+		for (Rectangle region : changed) {
+			area += (double) region.width * region.height;
+		}
+		if (next.hasToken() != frame.hasToken() || changed.size() > MAX_SEPARATE_REGIONS
+				|| area > FULL_REPAINT_SHARE * TankModel.WIDTH * TankModel.HEIGHT) {
+			changed = Collections.singletonList(new Rectangle(0, 0, TankModel.WIDTH, TankModel.HEIGHT));
+		}
+		frame = next;
+		return changed;
+	}
+
+	// area covered by the fish image and by its label, which is drawn above it
+	private Rectangle boundsOf(FishModel fish, FontMetrics metrics) {
+		Rectangle bounds = new Rectangle(fish.getX(), fish.getY(), FishView.WIDTH, FishView.HEIGHT);
+		bounds.add(new Rectangle(fish.getX(), fish.getY() - metrics.getAscent(),
+				metrics.stringWidth(fish.getId()), metrics.getAscent() + metrics.getDescent()));
+		return bounds;
+	}
+
 	private void drawBorders(Graphics2D g2d) {
 		g2d.drawRect(0, 0, TankModel.WIDTH - 1, TankModel.HEIGHT - 1);
 	}
@@ -50,11 +135,19 @@ public class TankView extends JPanel implements Observer {
 	private void doDrawing(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
 
-		if (tankModel.hasToken()) {
+		if (frame.hasToken()) {
 			drawBorders(g2d);
 		}
 
-		for (FishModel fishModel : tankModel) {
+		Rectangle clip = g2d.getClipBounds();
+		if (clip != null && clip.contains(0, 0, TankModel.WIDTH, TankModel.HEIGHT)) {
+			clip = null;
+		}
+		FontMetrics metrics = g2d.getFontMetrics();
+		for (FishModel fishModel : frame) {
+			if (clip != null && !clip.intersects(boundsOf(fishModel, metrics))) {
+				continue;
+			}
 			g2d.drawImage(fishView.getImage(fishModel), fishModel.getX(), fishModel.getY(), null);
 			g2d.drawString(fishModel.getId(), fishModel.getX(), fishModel.getY());
 		}
@@ -69,7 +162,9 @@ public class TankView extends JPanel implements Observer {
 
 	@Override
 	public void update(Observable o, Object arg) {
-		SwingUtilities.invokeLater(repaintRunnable);
+		if (repaintPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(repaintRunnable);
+		}
 	}
 
 	public static void showGlobalSnapshot(int total) {
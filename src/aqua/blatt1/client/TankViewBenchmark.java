@@ -0,0 +1,108 @@
+package aqua.blatt1.client;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import aqua.blatt1.common.FishModel;
+
+/*
+ * Compares painting the whole tank every frame with painting the regions TankView.changedRegions
+ * returns, for 10, 100, 1000 and 10000 fish. The view paints into an image instead of the screen,
+ * so the numbers are the painting the event dispatch thread does per frame without the copy to the
+ * screen. Every fish moves in every tick, as in a tank without the token.
+ *
+ * Arguments: [frames per measurement].
+ */
+public class TankViewBenchmark {
+	private static final int[] SIZES = { 10, 100, 1000, 10000 };
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+		System.out.printf("%8s %10s %10s %10s %10s %10s %8s%n", "fish", "full ms", "full cpu", "dirty ms",
+				"dirty cpu", "region ms", "area");
+		for (int size : SIZES) {
+			List<TankFrame> tankFrames = frames(size, frames);
+			// the first run warms up the JIT
+			paint(tankFrames, false);
+			double[] full = paint(tankFrames, false);
+			paint(tankFrames, true);
+			double[] dirty = paint(tankFrames, true);
+			System.out.printf("%8d %10.3f %10.3f %10.3f %10.3f %10.3f %7.0f%%%n", size, full[0], full[1],
+					dirty[0] + dirty[2], dirty[1] + dirty[3], dirty[2], dirty[4] * 100);
+		}
+		System.exit(0);
+	}
+
+	// the frames a tank with size fish publishes in consecutive ticks
+	private static List<TankFrame> frames(int size, int frames) {
+		FishStore store = new FishStore(new SplittableRandom(1));
+		SplittableRandom random = new SplittableRandom(2);
+		for (int i = 0; i < size; i++) {
+			store.add(FishStoreBenchmark.randomFish(random, i));
+		}
+		List<TankFrame> tankFrames = new ArrayList<>(frames);
+		for (int tick = 0; tick < frames; tick++) {
+			FishStoreBenchmark.tick(store);
+			List<FishModel> copies = new ArrayList<>(store.size());
+			for (int slot = 0; slot < store.size(); slot++) {
+				copies.add(store.get(slot));
+			}
+			tankFrames.add(new TankFrame("tank0", false, copies, tick));
+		}
+		return tankFrames;
+	}
+
+	/*
+	 * Paints all frames into an image, either the whole tank or only the changed regions. Returns the
+	 * wall clock and CPU milliseconds per frame spent painting, the same for finding the changed region
+	 * and the average share of the tank that was painted.
+	 */
+	private static double[] paint(List<TankFrame> tankFrames, boolean dirtyRegions) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		BufferedImage image = new BufferedImage(TankModel.WIDTH, TankModel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Rectangle tank = new Rectangle(0, 0, TankModel.WIDTH, TankModel.HEIGHT);
+		TankView view = new TankView(new TankModel(null));
+		view.setSize(TankModel.WIDTH, TankModel.HEIGHT);
+
+		long paintWall = 0;
+		long paintCpu = 0;
+		long regionWall = 0;
+		long regionCpu = 0;
+		long area = 0;
+		for (TankFrame tankFrame : tankFrames) {
+			// the view always needs the frame, but without dirty regions finding one is not counted
+			long wall = System.nanoTime();
+			long cpu = threads.getCurrentThreadCpuTime();
+			List<Rectangle> clips = view.changedRegions(tankFrame);
+			if (dirtyRegions) {
+				regionWall += System.nanoTime() - wall;
+				regionCpu += threads.getCurrentThreadCpuTime() - cpu;
+			} else {
+				clips = Collections.singletonList(tank);
+			}
+
+			wall = System.nanoTime();
+			cpu = threads.getCurrentThreadCpuTime();
+			for (Rectangle clip : clips) {
+				area += (long) clip.width * clip.height;
+				Graphics2D g2d = image.createGraphics();
+				g2d.setClip(clip);
+				view.paint(g2d);
+				g2d.dispose();
+			}
+			paintWall += System.nanoTime() - wall;
+			paintCpu += threads.getCurrentThreadCpuTime() - cpu;
+		}
+		int frames = tankFrames.size();
+		return new double[] { paintWall / 1e6 / frames, paintCpu / 1e6 / frames, regionWall / 1e6 / frames,
+				regionCpu / 1e6 / frames, (double) area / frames / (tank.width * tank.height) };
+	}
+}
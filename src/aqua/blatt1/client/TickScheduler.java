@@ -0,0 +1,83 @@
+package aqua.blatt1.client;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs a simulation tick at a fixed rate, independent of how long a tick takes. If ticks fall behind
+ * (slow updates, GC pauses) up to maxCatchUpTicks are run back to back; a larger backlog is dropped
+ * and counted as an overrun. The frame callback runs once after each batch of ticks, so rendering
+ * does not slow down the simulation at high tick rates.
+ */
+public class TickScheduler {
+	private final long tickNanos;
+	private final int maxCatchUpTicks;
+
+	// only written by the thread executing run()
+	private volatile long tickCount = 0;
+	private volatile long overrunCount = 0;
+	private volatile long totalTickNanos = 0;
+	private volatile long maxTickNanos = 0;
+
+	public TickScheduler(int ticksPerSecond, int maxCatchUpTicks) {
+		this.tickNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+		this.maxCatchUpTicks = maxCatchUpTicks;
+	}
+
+	// the callbacks are passed here rather than to the constructor, so the owner can create the
+	// scheduler while it is being constructed itself
+	public void run(Runnable tick, Runnable frame) throws InterruptedException {
+		long next = System.nanoTime();
+		while (!Thread.currentThread().isInterrupted()) {
+			long now = System.nanoTime();
+			int ticks = 0;
+			while (now - next >= 0 && ticks < maxCatchUpTicks) {
+				tick.run();
+				long end = System.nanoTime();
+				record(end - now);
+				now = end;
+				next += tickNanos;
+				ticks++;
+			}
+			if (now - next >= 0) {
+				overrunCount++;
+				next = now + tickNanos;
+			}
+			if (ticks > 0) {
+				frame.run();
+			}
+
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+		}
+	}
+
+	private void record(long duration) {
+		tickCount++;
+		totalTickNanos += duration;
+		if (duration > maxTickNanos) {
+			maxTickNanos = duration;
+		}
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	/*
+	 * Number of times the backlog exceeded maxCatchUpTicks and ticks were skipped.
+	 */
+	public long getOverrunCount() {
+		return overrunCount;
+	}
+
+	public long getAverageTickNanos() {
+		long ticks = tickCount;
+		return ticks == 0 ? 0 : totalTickNanos / ticks;
+	}
+
+	public long getMaxTickNanos() {
+		return maxTickNanos;
+	}
+}
@@ -3,21 +3,27 @@ package aqua.blatt1.client;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
-import javax.swing.JMenuItem;
+import javax.swing.JList;
 
 public class ToggleController implements ActionListener {
     private final TankModel tankModel;
+    private final JList<String> fishList;
 
-    public ToggleController(TankModel tankModel) {
+    public ToggleController(TankModel tankModel, JList<String> fishList) {
         this.tankModel = tankModel;
+        this.fishList = fishList;
     }
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        if (e.getSource() instanceof JMenuItem) {
-            JMenuItem menuItem = (JMenuItem) e.getSource();
-            String fishId = menuItem.getText();
-            tankModel.locateFishGlobally(fishId);
+        toggleSelected();
+    }
+
+    // locates the fish selected in the list, if any
+    public void toggleSelected() {
+        String fishId = fishList.getSelectedValue();
+        if (fishId != null) {
+            tankModel.locateFish(fishId);
         }
     }
 }
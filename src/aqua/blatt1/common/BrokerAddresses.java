@@ -0,0 +1,31 @@
+package aqua.blatt1.common;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Addresses of the brokers of a cluster, configured with -Daqua.brokers=host:port,host:port,... in the
+ * same order for all brokers and tanks. Without the property there is a single broker at
+ * Properties.HOST and PORT.
+ */
+public final class BrokerAddresses {
+	public static final String PROPERTY = "aqua.brokers";
+
+	private BrokerAddresses() {
+	}
+
+	public static List<InetSocketAddress> configured() {
+		String property = System.getProperty(PROPERTY);
+		if (property == null || property.isBlank()) {
+			return Collections.singletonList(new InetSocketAddress(Properties.HOST, Properties.PORT));
+		}
+		List<InetSocketAddress> brokers = new ArrayList<>();
+		for (String broker : property.split(",")) {
+			String[] hostAndPort = broker.trim().split(":");
+			brokers.add(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+		}
+		return Collections.unmodifiableList(brokers);
+	}
+}
@@ -0,0 +1,84 @@
+package aqua.blatt1.common;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aqua.blatt1.common.msgtypes.BatchHandoffRequest;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.LeaseUpdate;
+import aqua.blatt1.common.msgtypes.LocationUpdate;
+import aqua.blatt1.common.msgtypes.NeighborView;
+import aqua.blatt1.common.msgtypes.RegisterResponse;
+import messaging.Codec;
+import messaging.JavaSerializationCodec;
+
+/*
+ * Compares WireCodec with Java serialization for the messages the tanks and the broker send most:
+ * for each message it prints the encoded size and the nanoseconds to encode and to decode it. The
+ * sizes are those of the plaintext, SecureEndpoint adds the same overhead to both.
+ *
+ * Arguments: [operations per measurement].
+ */
+public class CodecBenchmark {
+	private static final int ROUNDS = 5;
+
+	// decoded messages go here so that decoding is not optimized away
+	static int sink;
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+		InetSocketAddress left = new InetSocketAddress("192.168.1.17", 50123);
+		InetSocketAddress right = new InetSocketAddress("192.168.1.42", 50321);
+		List<FishModel> school = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			school.add(new FishModel("fish" + i + "@tank3", 0, 10 * i, Direction.RIGHT));
+		}
+		Map<String, Serializable> messages = new LinkedHashMap<>();
+		messages.put("HandoffRequest", new HandoffRequest(new FishModel("fish1@tank3", 0, 42, Direction.LEFT)));
+		messages.put("BatchHandoffRequest(8)", new BatchHandoffRequest(school));
+		messages.put("RegisterResponse", new RegisterResponse("tank3", left, right, 10000, 7));
+		messages.put("NeighborView", new NeighborView(left, right, 8));
+		messages.put("LocationUpdate", new LocationUpdate("fish1@tank3"));
+		messages.put("LeaseUpdate", new LeaseUpdate(20000));
+
+		Codec wire = new WireCodec();
+		Codec java = new JavaSerializationCodec();
+		System.out.printf("%-24s %8s %8s %10s %10s %10s %10s%n", "message", "wire B", "java B", "wire enc",
+				"java enc", "wire dec", "java dec");
+		for (Map.Entry<String, Serializable> message : messages.entrySet()) {
+			Serializable payload = message.getValue();
+			long[] wireNanos = null;
+			long[] javaNanos = null;
+			for (int round = 0; round < ROUNDS; round++) {
+				wireNanos = measure(wire, payload, operations);
+				javaNanos = measure(java, payload, operations);
+			}
+			System.out.printf("%-24s %8d %8d %10d %10d %10d %10d%n", message.getKey(), wire.encode(payload).length,
+					java.encode(payload).length, wireNanos[0], javaNanos[0], wireNanos[1], javaNanos[1]);
+		}
+	}
+
+	// returns the nanoseconds per encode and per decode
+	private static long[] measure(Codec codec, Serializable payload, int operations)
+			throws IOException, ClassNotFoundException {
+		byte[] encoded = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			encoded = codec.encode(payload);
+		}
+		long encode = (System.nanoTime() - start) / operations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			sink += codec.decode(encoded).hashCode();
+		}
+		long decode = (System.nanoTime() - start) / operations;
+		return new long[] { encode, decode };
+	}
+}
@@ -0,0 +1,33 @@
+package aqua.blatt1.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * How the broker and the client run message handlers. POOL uses a fixed pool of platform threads,
+ * VIRTUAL starts a virtual thread per task. The mode is chosen with -Daqua.executionMode=pool|virtual.
+ */
+public enum ExecutionMode {
+	POOL, VIRTUAL;
+
+	public static final String PROPERTY = "aqua.executionMode";
+
+	public static ExecutionMode configured() {
+		return valueOf(System.getProperty(PROPERTY, POOL.name()).toUpperCase());
+	}
+
+	/*
+	 * Executor for independent tasks, e.g. one per received message.
+	 */
+	public ExecutorService newTaskExecutor(int poolSize) {
+		return this == VIRTUAL ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(poolSize);
+	}
+
+	/*
+	 * Executor that runs tasks one at a time in submission order.
+	 */
+	public ExecutorService newSerialExecutor() {
+		return this == VIRTUAL ? Executors.newSingleThreadExecutor(Thread.ofVirtual().factory())
+				: Executors.newSingleThreadExecutor();
+	}
+}
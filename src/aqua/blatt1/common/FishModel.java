@@ -1,14 +1,21 @@
 package aqua.blatt1.common;
 
 import java.io.Serializable;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 import aqua.blatt1.client.TankModel;
 
 public final class FishModel implements Serializable {
 	private final static int xSize = 100;
 	private final static int ySize = 50;
-	private final static Random rand = new Random();
+
+	// Math.round(Math.sin(x / 30.0)) for every x a fish can reach
+	private final static byte[] discreteSin = new byte[TankModel.WIDTH + 2 * xSize + 1];
+
+	static {
+		for (int i = 0; i < discreteSin.length; i++)
+			discreteSin[i] = (byte) Math.round(Math.sin((i - xSize) / 30.0));
+	}
 
 	private final String id;
 	private int x;
@@ -29,7 +36,14 @@ public final class FishModel implements Serializable {
 	}
 
 	public String getTankId() {
-		return id.substring(id.indexOf("@") + 1);
+		return tankIdOf(id);
+	}
+
+	/*
+	 * Id of the tank a fish was created in, which is part of the fish id.
+	 */
+	public static String tankIdOf(String fishId) {
+		return fishId.substring(fishId.indexOf("@") + 1);
 	}
 
 	public int getX() {
@@ -65,25 +79,43 @@ public final class FishModel implements Serializable {
 	}
 
 	public boolean hitsEdge() {
+		return hitsEdge(x, direction);
+	}
+
+	public static boolean hitsEdge(int x, Direction direction) {
 		return (direction == Direction.LEFT && x == 0)
 				|| (direction == Direction.RIGHT && x == TankModel.WIDTH - xSize);
 	}
 
 	public boolean disappears() {
+		return disappears(x, direction);
+	}
+
+	public static boolean disappears(int x, Direction direction) {
 		return (direction == Direction.LEFT && x == -xSize)
 				|| (direction == Direction.RIGHT && x == TankModel.WIDTH);
 	}
 
-	public void update() {
+	public void update(RandomGenerator rand) {
 		x += direction.getVector();
+		y = nextY(x, y, rand);
+	}
 
-		double discreteSin = Math.round(Math.sin(x / 30.0));
-		discreteSin = rand.nextInt(10) < 8 ? 0 : discreteSin;
-		y += discreteSin;
-		y = y < 0 ? 0 : y > TankModel.HEIGHT - FishModel.getYSize() ? TankModel.HEIGHT
+	/*
+	 * Vertical position of a fish at y after it moved to x. The generator decides whether it moves,
+	 * so a seeded generator makes the movement reproducible.
+	 */
+	public static int nextY(int x, int y, RandomGenerator rand) {
+		y += rand.nextInt(10) < 8 ? 0 : discreteSin(x);
+		return y < 0 ? 0 : y > TankModel.HEIGHT - FishModel.getYSize() ? TankModel.HEIGHT
 				- FishModel.getYSize() : y;
 	}
 
+	private static int discreteSin(int x) {
+		int i = x + xSize;
+		return i >= 0 && i < discreteSin.length ? discreteSin[i] : (int) Math.round(Math.sin(x / 30.0));
+	}
+
 	public void setToStart() {
 		x = direction == Direction.LEFT ? TankModel.WIDTH : -xSize;
 	}
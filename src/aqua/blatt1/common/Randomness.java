@@ -0,0 +1,30 @@
+package aqua.blatt1.common;
+
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator.SplittableGenerator;
+
+/*
+ * Source of the random generators of the tanks. Every tank gets its own generator split off a root
+ * generator, so tanks never share one. With -Daqua.seed=<long> the root generator is seeded, and tanks
+ * created in the same order draw the same numbers in every run.
+ */
+public final class Randomness {
+	public static final String SEED_PROPERTY = "aqua.seed";
+
+	private static final SplittableGenerator root = createRoot();
+
+	private Randomness() {
+	}
+
+	private static SplittableGenerator createRoot() {
+		Long seed = Long.getLong(SEED_PROPERTY);
+		return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+	}
+
+	public static SplittableGenerator newGenerator() {
+		// splitting advances the root generator, which is not thread-safe
+		synchronized (root) {
+			return root.split();
+		}
+	}
+}
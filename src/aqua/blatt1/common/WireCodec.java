@@ -0,0 +1,337 @@
+package aqua.blatt1.common;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import aqua.blatt1.common.msgtypes.BatchHandoffRequest;
+import aqua.blatt1.common.msgtypes.BrokerForward;
+import aqua.blatt1.common.msgtypes.DeregisterRequest;
+import aqua.blatt1.common.msgtypes.HandoffRequest;
+import aqua.blatt1.common.msgtypes.Heartbeat;
+import aqua.blatt1.common.msgtypes.LeaseUpdate;
+import aqua.blatt1.common.msgtypes.Handover;
+import aqua.blatt1.common.msgtypes.LocationRequest;
+import aqua.blatt1.common.msgtypes.LocationUpdate;
+import aqua.blatt1.common.msgtypes.NameResolutionRequest;
+import aqua.blatt1.common.msgtypes.NameResolutionResponse;
+import aqua.blatt1.common.msgtypes.NeighborView;
+import aqua.blatt1.common.msgtypes.RegisterRequest;
+import aqua.blatt1.common.msgtypes.RegisterResponse;
+import aqua.blatt1.common.msgtypes.SegmentUpdate;
+import aqua.blatt1.common.msgtypes.SnapshotMarker;
+import aqua.blatt1.common.msgtypes.SnapshotToken;
+import aqua.blatt1.common.msgtypes.Token;
+import messaging.Codec;
+import messaging.JavaSerializationCodec;
+import messaging.SecureEndpoint;
+
+/*
+ * Compact binary encoding of the Aqualife message types. Every message starts with a version byte and
+ * a type tag followed by the fields of that type in a fixed order. Payloads of any other type are
+ * written with Java serialization behind the JAVA tag.
+ */
+public final class WireCodec implements Codec {
+	public static final byte VERSION = 1;
+
+	private static final byte JAVA = 0;
+	private static final byte REGISTER_REQUEST = 1;
+	private static final byte REGISTER_RESPONSE = 2;
+	private static final byte DEREGISTER_REQUEST = 3;
+	private static final byte HANDOFF_REQUEST = 4;
+	// 5 was NeighborUpdate, which the broker replaced by NeighborView; it is not reused
+	private static final byte TOKEN = 6;
+	private static final byte SNAPSHOT_MARKER = 7;
+	private static final byte SNAPSHOT_TOKEN = 8;
+	private static final byte LOCATION_REQUEST = 9;
+	private static final byte BATCH_HANDOFF_REQUEST = 10;
+	private static final byte NAME_RESOLUTION_REQUEST = 11;
+	private static final byte NAME_RESOLUTION_RESPONSE = 12;
+	private static final byte LOCATION_UPDATE = 13;
+	private static final byte BROKER_FORWARD = 14;
+	private static final byte SEGMENT_UPDATE = 15;
+	private static final byte HANDOVER = 16;
+	private static final byte NEIGHBOR_VIEW = 17;
+	private static final byte HEARTBEAT = 18;
+	private static final byte LEASE_UPDATE = 19;
+
+	// no message has to be larger than what SecureEndpoint fits into a datagram
+	private static final int MAX_MESSAGE_SIZE = SecureEndpoint.MAX_PAYLOAD_SIZE;
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(MAX_MESSAGE_SIZE));
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private final JavaSerializationCodec fallback = new JavaSerializationCodec();
+
+	@Override
+	public byte[] encode(Serializable payload) throws IOException {
+		ByteBuffer out = buffers.get();
+		out.clear();
+		out.put(VERSION);
+		try {
+			if (!write(out, payload)) {
+				byte[] serialized = fallback.encode(payload);
+				if (2 + serialized.length > MAX_MESSAGE_SIZE) {
+					throw new IOException(payload.getClass().getSimpleName() + " exceeds " + MAX_MESSAGE_SIZE + " bytes");
+				}
+				byte[] bytes = new byte[2 + serialized.length];
+				bytes[0] = VERSION;
+				bytes[1] = JAVA;
+				System.arraycopy(serialized, 0, bytes, 2, serialized.length);
+				return bytes;
+			}
+		} catch (BufferOverflowException e) {
+			throw new IOException(payload.getClass().getSimpleName() + " exceeds " + MAX_MESSAGE_SIZE + " bytes");
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	private boolean write(ByteBuffer out, Serializable payload) {
+		if (payload instanceof RegisterRequest) {
+			out.put(REGISTER_REQUEST);
+		} else if (payload instanceof RegisterResponse) {
+			RegisterResponse response = (RegisterResponse) payload;
+			out.put(REGISTER_RESPONSE);
+			putString(out, response.getId());
+			putAddress(out, response.getLeftNeighbor());
+			putAddress(out, response.getRightNeighbor());
+			out.putInt(response.getLeaseDuration());
+			out.putLong(response.getVersion());
+		} else if (payload instanceof DeregisterRequest) {
+			out.put(DEREGISTER_REQUEST);
+			putString(out, ((DeregisterRequest) payload).getId());
+		} else if (payload instanceof HandoffRequest) {
+			out.put(HANDOFF_REQUEST);
+			putFish(out, ((HandoffRequest) payload).getFish());
+		} else if (payload instanceof BatchHandoffRequest) {
+			List<FishModel> fishies = ((BatchHandoffRequest) payload).getFishies();
+			out.put(BATCH_HANDOFF_REQUEST);
+			out.putShort((short) fishies.size());
+			for (FishModel fish : fishies) {
+				putFish(out, fish);
+			}
+		} else if (payload instanceof NeighborView) {
+			NeighborView view = (NeighborView) payload;
+			out.put(NEIGHBOR_VIEW);
+			putAddress(out, view.getLeftNeighbor());
+			putAddress(out, view.getRightNeighbor());
+			out.putLong(view.getVersion());
+		} else if (payload instanceof Heartbeat) {
+			out.put(HEARTBEAT);
+		} else if (payload instanceof LeaseUpdate) {
+			out.put(LEASE_UPDATE);
+			out.putInt(((LeaseUpdate) payload).getLeaseDuration());
+		} else if (payload instanceof Token) {
+			out.put(TOKEN);
+			out.putLong(((Token) payload).getId());
+		} else if (payload instanceof SnapshotMarker) {
+			out.put(SNAPSHOT_MARKER);
+		} else if (payload instanceof SnapshotToken) {
+			SnapshotToken token = (SnapshotToken) payload;
+			out.put(SNAPSHOT_TOKEN);
+			out.putInt(token.getFishCount());
+			putBoolean(out, token.isInitiator());
+		} else if (payload instanceof LocationRequest) {
+			out.put(LOCATION_REQUEST);
+			putString(out, ((LocationRequest) payload).getFishId());
+		} else if (payload instanceof NameResolutionRequest) {
+			NameResolutionRequest request = (NameResolutionRequest) payload;
+			out.put(NAME_RESOLUTION_REQUEST);
+			putString(out, request.getTankId());
+			putString(out, request.getRequestId());
+		} else if (payload instanceof NameResolutionResponse) {
+			NameResolutionResponse response = (NameResolutionResponse) payload;
+			out.put(NAME_RESOLUTION_RESPONSE);
+			putAddress(out, response.getAddress());
+			putString(out, response.getRequestId());
+		} else if (payload instanceof LocationUpdate) {
+			out.put(LOCATION_UPDATE);
+			putString(out, ((LocationUpdate) payload).getFishId());
+		} else if (payload instanceof BrokerForward) {
+			BrokerForward forward = (BrokerForward) payload;
+			out.put(BROKER_FORWARD);
+			putAddress(out, forward.getClient());
+			// the forwarded request follows with its own tag
+			return write(out, forward.getRequest());
+		} else if (payload instanceof SegmentUpdate) {
+			SegmentUpdate update = (SegmentUpdate) payload;
+			out.put(SEGMENT_UPDATE);
+			putAddress(out, update.getFirst());
+			putAddress(out, update.getLast());
+			out.putLong(update.getVersion());
+			putBoolean(out, update.isLeaving());
+		} else if (payload instanceof Handover) {
+			Handover handover = (Handover) payload;
+			out.put(HANDOVER);
+			putAddress(out, handover.getClient());
+			putString(out, handover.getId());
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Serializable decode(byte[] bytes) throws IOException, ClassNotFoundException {
+		if (bytes.length < 2 || bytes[0] != VERSION) {
+			throw new IOException("Unsupported message version " + (bytes.length == 0 ? "none" : bytes[0]));
+		}
+		if (bytes[1] == JAVA) {
+			return fallback.decode(Arrays.copyOfRange(bytes, 2, bytes.length));
+		}
+		ByteBuffer in = ByteBuffer.wrap(bytes, 2, bytes.length - 2);
+		try {
+			return read(in, bytes[1]);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated message of type " + bytes[1]);
+		}
+	}
+
+	private Serializable read(ByteBuffer in, byte type) throws IOException {
+		switch (type) {
+		case REGISTER_REQUEST:
+			return new RegisterRequest();
+		case REGISTER_RESPONSE:
+			return new RegisterResponse(getString(in), getAddress(in), getAddress(in), in.getInt(), in.getLong());
+		case DEREGISTER_REQUEST:
+			return new DeregisterRequest(getString(in));
+		case HANDOFF_REQUEST:
+			return new HandoffRequest(getFish(in));
+		case BATCH_HANDOFF_REQUEST:
+			int count = in.getShort() & 0xFFFF;
+			if (count == 0) {
+				throw new IOException("Empty batch handoff");
+			}
+			List<FishModel> fishies = new ArrayList<FishModel>(count);
+			for (int i = 0; i < count; i++) {
+				fishies.add(getFish(in));
+			}
+			return new BatchHandoffRequest(fishies);
+		case NEIGHBOR_VIEW:
+			return new NeighborView(getAddress(in), getAddress(in), in.getLong());
+		case HEARTBEAT:
+			return new Heartbeat();
+		case LEASE_UPDATE:
+			return new LeaseUpdate(in.getInt());
+		case TOKEN:
+			return new Token(in.getLong());
+		case SNAPSHOT_MARKER:
+			return new SnapshotMarker();
+		case SNAPSHOT_TOKEN:
+			return new SnapshotToken(in.getInt(), getBoolean(in));
+		case LOCATION_REQUEST:
+			return new LocationRequest(getString(in));
+		case NAME_RESOLUTION_REQUEST:
+			return new NameResolutionRequest(getString(in), getString(in));
+		case NAME_RESOLUTION_RESPONSE:
+			return new NameResolutionResponse(getAddress(in), getString(in));
+		case LOCATION_UPDATE:
+			return new LocationUpdate(getString(in));
+		case BROKER_FORWARD:
+			return new BrokerForward(getAddress(in), read(in, in.get()));
+		case SEGMENT_UPDATE:
+			return new SegmentUpdate(getAddress(in), getAddress(in), in.getLong(), getBoolean(in));
+		case HANDOVER:
+			return new Handover(getAddress(in), getString(in));
+		default:
+			throw new IOException("Unknown message type " + type);
+		}
+	}
+
+	private static void putFish(ByteBuffer out, FishModel fish) {
+		putString(out, fish.getId());
+		out.putInt(fish.getX());
+		out.putInt(fish.getY());
+		putDirection(out, fish.getDirection());
+		putBoolean(out, fish.isToggled());
+	}
+
+	private static FishModel getFish(ByteBuffer in) {
+		FishModel fish = new FishModel(getString(in), in.getInt(), in.getInt(), getDirection(in));
+		if (getBoolean(in)) {
+			fish.toggle();
+		}
+		return fish;
+	}
+
+	// length as unsigned short, 0xFFFF for null, followed by UTF-8 bytes
+	private static void putString(ByteBuffer out, String s) {
+		if (s == null) {
+			out.putShort((short) 0xFFFF);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+
+	private static String getString(ByteBuffer in) {
+		int length = in.getShort() & 0xFFFF;
+		if (length == 0xFFFF) {
+			return null;
+		}
+		if (length > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+
+	// length of the IP address (0 for null, 0xFF for an unresolved host name), address, port
+	private static void putAddress(ByteBuffer out, InetSocketAddress address) {
+		if (address == null) {
+			out.put((byte) 0);
+			return;
+		}
+		if (address.isUnresolved()) {
+			out.put((byte) 0xFF);
+			putString(out, address.getHostString());
+		} else {
+			byte[] ip = address.getAddress().getAddress();
+			out.put((byte) ip.length);
+			out.put(ip);
+		}
+		out.putShort((short) address.getPort());
+	}
+
+	private static InetSocketAddress getAddress(ByteBuffer in) throws IOException {
+		int length = in.get() & 0xFF;
+		if (length == 0) {
+			return null;
+		}
+		if (length == 0xFF) {
+			String host = getString(in);
+			return InetSocketAddress.createUnresolved(host, in.getShort() & 0xFFFF);
+		}
+		byte[] ip = new byte[length];
+		in.get(ip);
+		return new InetSocketAddress(InetAddress.getByAddress(ip), in.getShort() & 0xFFFF);
+	}
+
+	private static void putDirection(ByteBuffer out, Direction direction) {
+		out.put((byte) (direction == null ? -1 : direction.ordinal()));
+	}
+
+	private static Direction getDirection(ByteBuffer in) {
+		byte ordinal = in.get();
+		return ordinal < 0 ? null : DIRECTIONS[ordinal];
+	}
+
+	private static void putBoolean(ByteBuffer out, boolean b) {
+		out.put((byte) (b ? 1 : 0));
+	}
+
+	private static boolean getBoolean(ByteBuffer in) {
+		return in.get() != 0;
+	}
+}
@@ -0,0 +1,26 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import aqua.blatt1.common.FishModel;
+
+public final class BatchHandoffRequest implements Serializable {
+	private static final long serialVersionUID = 1L;
+	// all fish of a batch leave the tank in the same direction, there is at least one
+	private final ArrayList<FishModel> fishies;
+
+	// copies the fish, so a sublist of the tank's handoffs can be passed
+	public BatchHandoffRequest(List<FishModel> fishies) {
+		if (fishies.isEmpty()) {
+			throw new IllegalArgumentException("A batch needs at least one fish");
+		}
+		this.fishies = new ArrayList<>(fishies);
+	}
+
+	public List<FishModel> getFishies() {
+		return Collections.unmodifiableList(fishies);
+	}
+}
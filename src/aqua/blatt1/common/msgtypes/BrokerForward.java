@@ -0,0 +1,27 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * A request of a tank that a broker passes on to the broker owning the tank. The receiving broker
+ * handles the request as if the tank had sent it and answers the tank directly.
+ */
+public final class BrokerForward implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final InetSocketAddress client;
+	private final Serializable request;
+
+	public BrokerForward(InetSocketAddress client, Serializable request) {
+		this.client = client;
+		this.request = request;
+	}
+
+	public InetSocketAddress getClient() {
+		return client;
+	}
+
+	public Serializable getRequest() {
+		return request;
+	}
+}
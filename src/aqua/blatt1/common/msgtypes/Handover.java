@@ -0,0 +1,27 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * Moves a tank to the broker that owns it after a broker joined or left the cluster. The tank keeps
+ * its id.
+ */
+public final class Handover implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final InetSocketAddress client;
+	private final String id;
+
+	public Handover(InetSocketAddress client, String id) {
+		this.client = client;
+		this.id = id;
+	}
+
+	public InetSocketAddress getClient() {
+		return client;
+	}
+
+	public String getId() {
+		return id;
+	}
+}
@@ -0,0 +1,11 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Renews the lease of the sending tank. Unlike a RegisterRequest it carries nothing and is not
+ * answered; a broker that does not know the tank registers it.
+ */
+public final class Heartbeat implements Serializable {
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,20 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * New lease duration in milliseconds, sent by the broker to its tanks when it adapts the lease to
+ * the number of tanks.
+ */
+public final class LeaseUpdate implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final int leaseDuration;
+
+	public LeaseUpdate(int leaseDuration) {
+		this.leaseDuration = leaseDuration;
+	}
+
+	public int getLeaseDuration() {
+		return leaseDuration;
+	}
+}
@@ -0,0 +1,19 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Tells the home tank of a fish that the fish now is in the sending tank.
+ */
+public final class LocationUpdate implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final String fishId;
+
+	public LocationUpdate(String fishId) {
+		this.fishId = fishId;
+	}
+
+	public String getFishId() {
+		return fishId;
+	}
+}
@@ -0,0 +1,26 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+
+/*
+ * Asks the broker for the address of the tank with the given id. The request id is echoed in the
+ * response.
+ */
+public final class NameResolutionRequest implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final String tankId;
+	private final String requestId;
+
+	public NameResolutionRequest(String tankId, String requestId) {
+		this.tankId = tankId;
+		this.requestId = requestId;
+	}
+
+	public String getTankId() {
+		return tankId;
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+}
@@ -0,0 +1,26 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * Address of a tank, null if the broker does not know the tank.
+ */
+public final class NameResolutionResponse implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final InetSocketAddress address;
+	private final String requestId;
+
+	public NameResolutionResponse(InetSocketAddress address, String requestId) {
+		this.address = address;
+		this.requestId = requestId;
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+}
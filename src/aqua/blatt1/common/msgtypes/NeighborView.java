@@ -0,0 +1,34 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * Both neighbors of a tank. The broker collects membership changes for a few milliseconds and then
+ * sends every affected tank one view. The version increases with every membership change at the
+ * broker, so a tank can ignore a view that arrives after a newer one.
+ */
+public final class NeighborView implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final InetSocketAddress leftNeighbor;
+	private final InetSocketAddress rightNeighbor;
+	private final long version;
+
+	public NeighborView(InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor, long version) {
+		this.leftNeighbor = leftNeighbor;
+		this.rightNeighbor = rightNeighbor;
+		this.version = version;
+	}
+
+	public InetSocketAddress getLeftNeighbor() {
+		return leftNeighbor;
+	}
+
+	public InetSocketAddress getRightNeighbor() {
+		return rightNeighbor;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+}
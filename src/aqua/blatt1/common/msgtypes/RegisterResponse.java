@@ -8,12 +8,15 @@ public final class RegisterResponse implements Serializable {
 	private final InetSocketAddress leftNeighbor;
 	private final InetSocketAddress rightNeighbor;
 	private final int leaseDuration;
+	private final long version;
 
-	public RegisterResponse(String id, InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor, int leaseDuration) {
+	public RegisterResponse(String id, InetSocketAddress leftNeighbor, InetSocketAddress rightNeighbor, int leaseDuration,
+			long version) {
 		this.id = id;
 		this.leftNeighbor = leftNeighbor;
 		this.rightNeighbor = rightNeighbor;
 		this.leaseDuration = leaseDuration;
+		this.version = version;
 	}
 
 	public String getId() {
@@ -31,4 +34,11 @@ public final class RegisterResponse implements Serializable {
 	public int getLeaseDuration() {
 		return leaseDuration;
 	}
+
+	/*
+	 * Version of the neighbor view, see NeighborView.
+	 */
+	public long getVersion() {
+		return version;
+	}
 }
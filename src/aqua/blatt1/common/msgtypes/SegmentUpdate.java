@@ -0,0 +1,40 @@
+package aqua.blatt1.common.msgtypes;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/*
+ * First and last tank of the ring segment of a broker, null if the broker has no tanks. Brokers send
+ * it to each other whenever their segment's boundary changes and once a second as a heartbeat. A
+ * broker that shuts down sends a last update with leaving set.
+ */
+public final class SegmentUpdate implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final InetSocketAddress first;
+	private final InetSocketAddress last;
+	private final long version;
+	private final boolean leaving;
+
+	public SegmentUpdate(InetSocketAddress first, InetSocketAddress last, long version, boolean leaving) {
+		this.first = first;
+		this.last = last;
+		this.version = version;
+		this.leaving = leaving;
+	}
+
+	public InetSocketAddress getFirst() {
+		return first;
+	}
+
+	public InetSocketAddress getLast() {
+		return last;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isLeaving() {
+		return leaving;
+	}
+}
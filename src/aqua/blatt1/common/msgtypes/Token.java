@@ -2,5 +2,19 @@ package aqua.blatt1.common.msgtypes;
 
 import java.io.Serializable;
 
+/*
+ * The token passed around the ring. The broker creating it gives it an id higher than that of any
+ * token created before, so a tank can tell a duplicate from a concurrent creation by its lower id.
+ */
 public final class Token implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final long id;
+
+	public Token(long id) {
+		this.id = id;
+	}
+
+	public long getId() {
+		return id;
+	}
 }
@@ -12,8 +12,12 @@ public class Poisoner {
 	private final InetSocketAddress broker;
 
 	public Poisoner() {
+		this(new InetSocketAddress(Properties.HOST, Properties.PORT));
+	}
+
+	public Poisoner(InetSocketAddress broker) {
 		this.endpoint = new Endpoint();
-		this.broker = new InetSocketAddress(Properties.HOST, Properties.PORT);
+		this.broker = broker;
 	}
 
 	public void sendPoison() {
@@ -0,0 +1,15 @@
+package messaging;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Turns application payloads into bytes and back. SecureEndpoint encrypts the encoded bytes, so the
+ * codec decides how large each message is on the wire.
+ */
+public interface Codec {
+
+    byte[] encode(Serializable payload) throws IOException;
+
+    Serializable decode(byte[] bytes) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,31 @@
+package messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Codec based on Java serialization. Works for any Serializable payload.
+ */
+public class JavaSerializationCodec implements Codec {
+
+    @Override
+    public byte[] encode(Serializable payload) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(payload);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    @Override
+    public Serializable decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Serializable obj = (Serializable) ois.readObject();
+        ois.close();
+        return obj;
+    }
+}
@@ -1,65 +1,329 @@
 package messaging;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import messaging.log.Logger;
+import messaging.metrics.Counter;
+import messaging.metrics.LatencyHistogram;
+import messaging.metrics.Metrics;
 
 public class SecureEndpoint extends Endpoint {
 
+    // RSA is only used to exchange public keys and to wrap the per-peer AES session keys.
+    private static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int AES_KEY_SIZE = 128;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int GCM_IV_LENGTH = 12;
+    // epoch (4 bytes) followed by the IV
+    private static final int HEADER_LENGTH = 4 + GCM_IV_LENGTH;
+    // Endpoint receives into a buffer of this size and cuts longer datagrams off.
+    public static final int DATAGRAM_SIZE = 1024;
+    // Endpoint sends the encrypted bytes Java-serialized as a byte[], which adds this much.
+    private static final int ENVELOPE_LENGTH = 27;
+    // Largest encoded payload that still fits into a datagram once encrypted and serialized.
+    public static final int MAX_PAYLOAD_SIZE = DATAGRAM_SIZE - ENVELOPE_LENGTH - HEADER_LENGTH - GCM_TAG_LENGTH / 8;
+
+    // A session key is replaced after this many messages have been encrypted with it.
+    private static final long KEY_ROTATION_INTERVAL = 100_000;
+
+    // Messages sent before the key exchange with a peer completes are queued, at most this many
+    // per peer and for at most this long.
+    public static final int DEFAULT_PENDING_CAPACITY = 64;
+    public static final long DEFAULT_PENDING_TIMEOUT_MILLIS = 5 * 1000;
+    // Our public key is sent again if the peer has not answered within this time.
+    private static final long KEY_EXCHANGE_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // At most this many peers can have messages waiting for a key exchange; messages to further
+    // peers are dropped.
+    public static final int MAX_PENDING_PEERS = 1024;
+    // At most this many key messages per endpoint wait for the key exchange worker; further ones are
+    // dropped and their senders start the exchange over.
+    private static final int MAX_QUEUED_KEY_MESSAGES = 1024;
+    // While session keys are unwrapped, the receiving thread waits this long for the worker between
+    // looks at the socket. Each empty look costs a SocketTimeoutException.
+    private static final long UNWRAP_WAIT_MILLIS = 10;
+
+    // Expires pending messages and retries key exchanges of all endpoints, also while nothing is
+    // sent. It only holds endpoints weakly, so an endpoint that is no longer used can be collected.
+    private static final ScheduledExecutorService pendingMaintenance = Executors
+            .newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "pending-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Answers key exchanges and unwraps session keys for all endpoints, so that the RSA operations
+    // do not hold up the threads receiving from the sockets while many peers join at once.
+    private static final ExecutorService keyExchangeWorker = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "key-exchange");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Cipher instances are expensive to create but not thread-safe, so each thread keeps its own.
+    private static final ThreadLocal<Cipher> aesCiphers = ThreadLocal.withInitial(() -> newCipher(AES_TRANSFORMATION));
+    private static final ThreadLocal<Cipher> rsaCiphers = ThreadLocal.withInitial(() -> newCipher(RSA_TRANSFORMATION));
+
+    private static final Logger log = Logger.get(SecureEndpoint.class);
+
+    // Shared by all endpoints of the process. Encrypt and decrypt include encoding and decoding.
+    private static final Counter sentMessages = Metrics.counter("endpoint.sent");
+    private static final Counter receivedMessages = Metrics.counter("endpoint.received");
+    private static final Counter keyExchangesSent = Metrics.counter("endpoint.keyExchange.sent");
+    private static final Counter keyExchangesReceived = Metrics.counter("endpoint.keyExchange.received");
+    private static final Counter sessionKeysSent = Metrics.counter("endpoint.sessionKey.sent");
+    private static final Counter sessionKeysReceived = Metrics.counter("endpoint.sessionKey.received");
+    private static final Counter failedMessages = Metrics.counter("endpoint.failed");
+    // totals of all endpoints, next to the counters of each endpoint
+    private static final Counter totalPendingMessages = Metrics.counter("endpoint.pending");
+    private static final Counter totalDroppedPendingMessages = Metrics.counter("endpoint.droppedPending");
+    private static final LatencyHistogram encryptLatency = Metrics.histogram("endpoint.encrypt");
+    private static final LatencyHistogram decryptLatency = Metrics.histogram("endpoint.decrypt");
+    private static final LatencyHistogram rsaWrapLatency = Metrics.histogram("endpoint.rsaWrap");
+    private static final LatencyHistogram rsaUnwrapLatency = Metrics.histogram("endpoint.rsaUnwrap");
+
     // Define KeyExchangeMessage as a private static inner class
     private static class KeyExchangeMessage implements Serializable {
         private static final long serialVersionUID = 1L; // Good practice for Serializable classes
         private final PublicKey publicKey;
+        private final boolean replyRequested;
 
-        public KeyExchangeMessage(PublicKey publicKey) {
+        public KeyExchangeMessage(PublicKey publicKey, boolean replyRequested) {
             this.publicKey = publicKey;
+            this.replyRequested = replyRequested;
         }
 
         public PublicKey getPublicKey() {
             return publicKey;
         }
+
+        public boolean isReplyRequested() {
+            return replyRequested;
+        }
+    }
+
+    // Carries a fresh AES session key, wrapped with the receiver's public key.
+    private static class SessionKeyMessage implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int epoch;
+        private final byte[] wrappedKey;
+
+        public SessionKeyMessage(int epoch, byte[] wrappedKey) {
+            this.epoch = epoch;
+            this.wrappedKey = wrappedKey;
+        }
+
+        public int getEpoch() {
+            return epoch;
+        }
+
+        public byte[] getWrappedKey() {
+            return wrappedKey;
+        }
+    }
+
+    // The key we use to encrypt messages to one peer. The IV is the session salt followed by
+    // the message sequence number, so it never repeats for the lifetime of the key.
+    private static class OutboundSession {
+        private final int epoch;
+        private final SecretKey key;
+        private final int salt;
+        private final AtomicLong sequence = new AtomicLong();
+
+        OutboundSession(int epoch, SecretKey key, int salt) {
+            this.epoch = epoch;
+            this.key = key;
+            this.salt = salt;
+        }
+    }
+
+    // The keys a peer uses to encrypt messages to us. The previous key is kept so that messages
+    // still in flight during a rotation can be decrypted.
+    private static class InboundSession {
+        private final int epoch;
+        private final SecretKey key;
+        private final InboundSession previous;
+
+        InboundSession(int epoch, SecretKey key, InboundSession previous) {
+            this.epoch = epoch;
+            this.key = key;
+            this.previous = previous;
+        }
+
+        SecretKey keyFor(int epoch) {
+            if (this.epoch == epoch) {
+                return key;
+            }
+            return previous != null && previous.epoch == epoch ? previous.key : null;
+        }
+    }
+
+    // Messages to a peer whose public key is not known yet, in send order. A flushed queue is
+    // closed and removed, later messages start a new one.
+    private static class PendingQueue {
+        private final Deque<PendingMessage> messages = new ArrayDeque<>();
+        private long lastKeyExchangeNanos;
+        private boolean closed;
+    }
+
+    // Session keys of one peer the worker has not unwrapped yet, and the messages that arrived
+    // encrypted with them in the meantime.
+    private static class Unwrapping {
+        private int outstanding;
+        private final List<byte[]> parked = new ArrayList<>();
+    }
+
+    private static class PendingMessage {
+        private final Serializable payload;
+        private final long enqueuedNanos;
+
+        PendingMessage(Serializable payload, long enqueuedNanos) {
+            this.payload = payload;
+            this.enqueuedNanos = enqueuedNanos;
+        }
     }
 
-    private final Endpoint internalEndpoint;
+    private final Codec codec;
     private final KeyPair keyPair;
     private final PublicKey publicKey;
     private final PrivateKey privateKey;
     private final Map<InetSocketAddress, PublicKey> peerPublicKeys;
+    private final Map<InetSocketAddress, OutboundSession> outboundSessions;
+    private final Map<InetSocketAddress, InboundSession> inboundSessions;
+    private final Map<InetSocketAddress, PendingQueue> pendingQueues;
+    // session key announcements in progress, see rotateSession
+    private final Map<InetSocketAddress, CompletableFuture<OutboundSession>> rotations = new ConcurrentHashMap<>();
+    // when we last asked a peer to restart its session because we could not decrypt its message
+    private final Map<InetSocketAddress, Long> sessionResets = new ConcurrentHashMap<>();
+    // guarded by itself
+    private final Map<InetSocketAddress, Unwrapping> unwrapping = new HashMap<>();
+    // session keys queued or being unwrapped, the receiving thread polls while there are any
+    private final AtomicInteger unwrapsInProgress = new AtomicInteger();
+    // messages that waited for their session key, returned by the next receive
+    private final BlockingQueue<Message> unwrapped = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedKeyMessages = new AtomicInteger();
+    // maintenance starts with the first queued message rather than in the constructor
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private final int pendingCapacity;
+    private final long pendingTimeoutNanos;
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final LongAdder droppedPendingMessages = new LongAdder();
+    private final SecureRandom random;
+    private final KeyGenerator aesKeyGenerator;
 
     public SecureEndpoint() {
-        super();
-        this.internalEndpoint = new Endpoint();
+        this(0);
+    }
+
+    public SecureEndpoint(int port) {
+        this(port, new JavaSerializationCodec());
+    }
+
+    public SecureEndpoint(int port, Codec codec) {
+        this(port, codec, DEFAULT_PENDING_CAPACITY, DEFAULT_PENDING_TIMEOUT_MILLIS);
+    }
+
+    public SecureEndpoint(int port, int pendingCapacity, long pendingTimeoutMillis) {
+        this(port, new JavaSerializationCodec(), pendingCapacity, pendingTimeoutMillis);
+    }
+
+    /**
+     * Creates an endpoint on the given port (0 for any free port) that encodes payloads with the
+     * given codec before encryption and queues up to pendingCapacity messages per peer for at most
+     * pendingTimeoutMillis while the key exchange with that peer is in progress.
+     */
+    public SecureEndpoint(int port, Codec codec, int pendingCapacity, long pendingTimeoutMillis) {
+        super(port);
+        this.codec = codec;
         this.peerPublicKeys = new ConcurrentHashMap<>();
+        this.outboundSessions = new ConcurrentHashMap<>();
+        this.inboundSessions = new ConcurrentHashMap<>();
+        this.pendingQueues = new ConcurrentHashMap<>();
+        this.pendingCapacity = pendingCapacity;
+        this.pendingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(pendingTimeoutMillis);
+        this.random = new SecureRandom();
+        this.keyPair = generateKeyPair();
+        this.publicKey = this.keyPair.getPublic();
+        this.privateKey = this.keyPair.getPrivate();
+        this.aesKeyGenerator = newAesKeyGenerator(random);
+    }
+
+    private static void schedulePendingMaintenance(WeakReference<SecureEndpoint> endpoint) {
+        Future<?>[] task = new Future<?>[1];
+        synchronized (task) {
+            task[0] = pendingMaintenance.scheduleWithFixedDelay(() -> {
+                SecureEndpoint current = endpoint.get();
+                if (current != null) {
+                    current.maintainPending();
+                } else {
+                    synchronized (task) {
+                        task[0].cancel(false);
+                    }
+                }
+            }, KEY_EXCHANGE_RETRY_NANOS, KEY_EXCHANGE_RETRY_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static KeyPair generateKeyPair() {
         try {
             KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
             keyGen.initialize(2048);
-            this.keyPair = keyGen.generateKeyPair();
-            this.publicKey = this.keyPair.getPublic();
-            this.privateKey = this.keyPair.getPrivate();
+            return keyGen.generateKeyPair();
         } catch (GeneralSecurityException e) {
             throw new RuntimeException("Failed to initialize SecureEndpoint RSA keys", e);
         }
     }
 
-    public SecureEndpoint(int port) {
-        super(port);
-        this.internalEndpoint = new Endpoint(port);
-        this.peerPublicKeys = new ConcurrentHashMap<>();
+    private static KeyGenerator newAesKeyGenerator(SecureRandom random) {
         try {
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-            keyGen.initialize(2048);
-            this.keyPair = keyGen.generateKeyPair();
-            this.publicKey = this.keyPair.getPublic();
-            this.privateKey = this.keyPair.getPrivate();
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(AES_KEY_SIZE, random);
+            return keyGen;
         } catch (GeneralSecurityException e) {
-            throw new RuntimeException("Failed to initialize SecureEndpoint RSA keys", e);
+            throw new RuntimeException("Failed to initialize SecureEndpoint AES keys", e);
+        }
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Cipher " + transformation + " is not available", e);
         }
     }
 
@@ -68,32 +332,394 @@ public class SecureEndpoint extends Endpoint {
         try {
             PublicKey receiverPublicKey = peerPublicKeys.get(receiver);
 
-            if (receiverPublicKey == null) {
+            if (receiverPublicKey == null || pendingQueues.containsKey(receiver)) {
+                // The key exchange with the receiver has not completed yet. Keep the message
+                // until the peer's KeyExchangeMessage arrives; messages queued earlier go first.
+                enqueuePending(receiver, payload);
+                if (peerPublicKeys.containsKey(receiver)) {
+                    flushPending(receiver);
+                }
+                return;
+            }
+
+            sendEncrypted(receiver, receiverPublicKey, payload);
+
+        } catch (Exception e) {
+            failedMessages.increment();
+            log.error("Error sending to {}", receiver, e);
+        }
+    }
+
+    private void sendEncrypted(InetSocketAddress receiver, PublicKey receiverPublicKey, Serializable payload)
+            throws Exception {
+        // Encrypt the payload with the session key and send.
+        // The payload here is the application's intended serializable data.
+        // If the application wrapped its data in a Message object before calling
+        // SecureEndpoint.send,
+        // that Message object itself is the 'payload' to be encrypted.
+        OutboundSession session = outboundSessions.get(receiver);
+        long sequence = session == null ? KEY_ROTATION_INTERVAL : session.sequence.getAndIncrement();
+        if (sequence >= KEY_ROTATION_INTERVAL) {
+            session = rotateSession(receiver, receiverPublicKey, session);
+            sequence = session.sequence.getAndIncrement();
+        }
+
+        // Send the encrypted byte array. byte[] is Serializable.
+        long start = System.nanoTime();
+        byte[] encoded = codec.encode(payload);
+        if (encoded.length > MAX_PAYLOAD_SIZE) {
+            // the receiver would get a truncated datagram
+            throw new IOException(payload.getClass().getSimpleName() + " is encoded in " + encoded.length
+                    + " bytes, at most " + MAX_PAYLOAD_SIZE + " fit into a datagram");
+        }
+        byte[] encrypted = encrypt(session, sequence, encoded);
+        encryptLatency.recordSince(start);
+        super.send(receiver, encrypted);
+        sentMessages.increment();
+    }
+
+    private void enqueuePending(InetSocketAddress receiver, Serializable payload) {
+        if (!maintenanceScheduled.get() && maintenanceScheduled.compareAndSet(false, true)) {
+            schedulePendingMaintenance(new WeakReference<>(this));
+        }
+        if (!pendingQueues.containsKey(receiver) && pendingQueues.size() >= MAX_PENDING_PEERS) {
+            droppedPendingMessages.increment();
+            totalDroppedPendingMessages.increment();
+            log.warn("Too many peers without a completed key exchange, dropping message to {}.", receiver);
+            return;
+        }
+        while (true) {
+            PendingQueue queue = pendingQueues.computeIfAbsent(receiver, address -> new PendingQueue());
+            boolean sendKeyExchange;
+            synchronized (queue) {
+                if (queue.closed) {
+                    continue; // flushed concurrently, start a new queue
+                }
+                long now = System.nanoTime();
+                dropExpired(queue, now);
+                if (queue.messages.size() >= pendingCapacity) {
+                    droppedPendingMessages.increment();
+                    totalDroppedPendingMessages.increment();
+                    log.warn("Pending queue for {} is full, dropping message.", receiver);
+                    return;
+                }
+                queue.messages.add(new PendingMessage(payload, now));
+                pendingMessages.incrementAndGet();
+                totalPendingMessages.increment();
+
+                // Ask for the peer's key on the first message and again if the exchange seems lost
+                sendKeyExchange = queue.messages.size() == 1
+                        || now - queue.lastKeyExchangeNanos >= KEY_EXCHANGE_RETRY_NANOS;
+                if (sendKeyExchange) {
+                    queue.lastKeyExchangeNanos = now;
+                }
+            }
+            if (sendKeyExchange) {
                 // Send our public key as KeyExchangeMessage. This is a Serializable object.
-                internalEndpoint.send(receiver, new KeyExchangeMessage(this.publicKey));
-                System.out.println("Sent KeyExchangeMessage to: " + receiver
-                        + ". Original message will not be sent in this call.");
-                // The original message is not sent if the key is unknown.
-                // Application layer needs to handle retries or queueing.
+                super.send(receiver, new KeyExchangeMessage(this.publicKey, true));
+                keyExchangesSent.increment();
+                log.debug("Sent KeyExchangeMessage to {}. Message is queued until the key exchange completes.",
+                        receiver);
+            }
+            return;
+        }
+    }
+
+    // Sends everything queued for the receiver in order. Runs under the queue's lock so that
+    // concurrent senders cannot overtake the queued messages.
+    private void flushPending(InetSocketAddress receiver) throws Exception {
+        PendingQueue queue = pendingQueues.get(receiver);
+        PublicKey receiverPublicKey = peerPublicKeys.get(receiver);
+        if (queue == null || receiverPublicKey == null) {
+            return;
+        }
+        synchronized (queue) {
+            if (queue.closed) {
                 return;
             }
+            dropExpired(queue, System.nanoTime());
+            PendingMessage message;
+            while ((message = queue.messages.poll()) != null) {
+                pendingMessages.decrementAndGet();
+                totalPendingMessages.decrement();
+                sendEncrypted(receiver, receiverPublicKey, message.payload);
+            }
+            queue.closed = true;
+            pendingQueues.remove(receiver, queue);
+        }
+    }
 
-            // If key is known, encrypt the payload and send.
-            // The payload here is the application's intended serializable data.
-            // If the application wrapped its data in a Message object before calling
-            // SecureEndpoint.send,
-            // that Message object itself is the 'payload' to be encrypted.
+    // Drops expired messages, removes queues that became empty and asks again for the keys of peers
+    // that have not answered, so a peer that never answers does not keep its messages.
+    private void maintainPending() {
+        long now = System.nanoTime();
+        for (Map.Entry<InetSocketAddress, PendingQueue> entry : pendingQueues.entrySet()) {
+            PendingQueue queue = entry.getValue();
+            boolean sendKeyExchange = false;
+            synchronized (queue) {
+                if (queue.closed) {
+                    continue;
+                }
+                dropExpired(queue, now);
+                if (queue.messages.isEmpty()) {
+                    queue.closed = true;
+                    pendingQueues.remove(entry.getKey(), queue);
+                } else if (now - queue.lastKeyExchangeNanos >= KEY_EXCHANGE_RETRY_NANOS) {
+                    queue.lastKeyExchangeNanos = now;
+                    sendKeyExchange = true;
+                }
+            }
+            if (sendKeyExchange) {
+                super.send(entry.getKey(), new KeyExchangeMessage(this.publicKey, true));
+                keyExchangesSent.increment();
+            }
+        }
+    }
+
+    private void dropExpired(PendingQueue queue, long now) {
+        PendingMessage head;
+        while ((head = queue.messages.peek()) != null && now - head.enqueuedNanos > pendingTimeoutNanos) {
+            queue.messages.poll();
+            pendingMessages.decrementAndGet();
+            totalPendingMessages.decrement();
+            droppedPendingMessages.increment();
+            totalDroppedPendingMessages.increment();
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting for the key exchange with the given peer.
+     */
+    public int getPendingQueueDepth(InetSocketAddress receiver) {
+        PendingQueue queue = pendingQueues.get(receiver);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.messages.size();
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting for a key exchange with any peer.
+     */
+    public int getPendingMessageCount() {
+        return pendingMessages.get();
+    }
+
+    /**
+     * Returns the number of queued messages dropped because a queue was full or timed out.
+     */
+    public long getDroppedPendingMessageCount() {
+        return droppedPendingMessages.sum();
+    }
+
+    // Creates a new session key for the receiver unless another thread already replaced the stale
+    // one. The session is built under the lock, but announced after releasing it, so a slow send
+    // only holds up senders to the same receiver: they wait for the rotation in progress. The key is
+    // announced before the session is published, so no message encrypted with it can be sent ahead
+    // of the SessionKeyMessage.
+    private OutboundSession rotateSession(InetSocketAddress receiver, PublicKey receiverPublicKey,
+            OutboundSession stale) throws GeneralSecurityException {
+        CompletableFuture<OutboundSession> rotation;
+        OutboundSession session = null;
+        synchronized (outboundSessions) {
+            OutboundSession current = outboundSessions.get(receiver);
+            if (current != null && current != stale) {
+                return current;
+            }
+            rotation = rotations.get(receiver);
+            if (rotation == null) {
+                // A fresh session starts at a random epoch so it cannot be confused with an earlier one
+                int epoch = current == null ? random.nextInt() : current.epoch + 1;
+                session = new OutboundSession(epoch, aesKeyGenerator.generateKey(), random.nextInt());
+                rotation = new CompletableFuture<>();
+                rotations.put(receiver, rotation);
+            }
+        }
+        if (session == null) {
+            try {
+                return rotation.join();
+            } catch (CompletionException e) {
+                throw new GeneralSecurityException("Session key rotation for " + receiver + " failed", e.getCause());
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            Cipher rsaWrapCipher = rsaCiphers.get();
+            rsaWrapCipher.init(Cipher.WRAP_MODE, receiverPublicKey);
+            byte[] wrappedKey = rsaWrapCipher.wrap(session.key);
+            rsaWrapLatency.recordSince(start);
+            super.send(receiver, new SessionKeyMessage(session.epoch, wrappedKey));
+            sessionKeysSent.increment();
+
+            outboundSessions.put(receiver, session);
+            rotation.complete(session);
+            return session;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            rotation.completeExceptionally(e);
+            throw e;
+        } finally {
+            rotations.remove(receiver, rotation);
+        }
+    }
+
+    // returns whether the peer may be asked to restart its session now, and records the request
+    private boolean claimSessionReset(InetSocketAddress peer) {
+        long now = System.nanoTime();
+        Long last = sessionResets.get(peer);
+        if (last == null) {
+            return sessionResets.putIfAbsent(peer, now) == null;
+        }
+        return now - last >= KEY_EXCHANGE_RETRY_NANOS && sessionResets.replace(peer, last, now);
+    }
+
+    private static byte[] encrypt(OutboundSession session, long sequence, byte[] plaintext)
+            throws GeneralSecurityException {
+        Cipher cipher = aesCiphers.get();
+        byte[] encrypted = new byte[HEADER_LENGTH + plaintext.length + GCM_TAG_LENGTH / 8];
+        ByteBuffer header = ByteBuffer.wrap(encrypted, 0, HEADER_LENGTH);
+        header.putInt(session.epoch).putInt(session.salt).putLong(sequence);
+
+        cipher.init(Cipher.ENCRYPT_MODE, session.key,
+                new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 4, GCM_IV_LENGTH));
+        // The epoch is authenticated along with the payload
+        cipher.updateAAD(encrypted, 0, 4);
+        cipher.doFinal(plaintext, 0, plaintext.length, encrypted, HEADER_LENGTH);
+        return encrypted;
+    }
+
+    private static byte[] decrypt(Key key, byte[] encrypted) throws GeneralSecurityException {
+        Cipher cipher = aesCiphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 4, GCM_IV_LENGTH));
+        cipher.updateAAD(encrypted, 0, 4);
+        return cipher.doFinal(encrypted, HEADER_LENGTH, encrypted.length - HEADER_LENGTH);
+    }
+
+    private SecretKey sessionKeyFor(InetSocketAddress sender, byte[] encrypted) {
+        InboundSession session = inboundSessions.get(sender);
+        return session == null || encrypted.length < HEADER_LENGTH ? null
+                : session.keyFor(ByteBuffer.wrap(encrypted).getInt());
+    }
+
+    private Message decryptMessage(InetSocketAddress sender, SecretKey key, byte[] encrypted) {
+        try {
+            long start = System.nanoTime();
+            Serializable decryptedPayload = codec.decode(decrypt(key, encrypted));
+            decryptLatency.recordSince(start);
+            receivedMessages.increment();
+            // Return a new Message object with the decrypted payload and original sender
+            return new Message(decryptedPayload, sender);
+        } catch (Exception e) {
+            failedMessages.increment();
+            log.error("Error decrypting message from {}", sender, e);
+            return null; // Failed to decrypt
+        }
+    }
+
+    // Passes a key message to the key exchange worker, or drops it if too many are waiting.
+    private boolean submitKeyMessage(InetSocketAddress sender, Runnable handler) {
+        if (queuedKeyMessages.incrementAndGet() > MAX_QUEUED_KEY_MESSAGES) {
+            queuedKeyMessages.decrementAndGet();
+            failedMessages.increment();
+            log.warn("Too many key messages waiting, dropping the one from {}.", sender);
+            return false;
+        }
+        keyExchangeWorker.execute(() -> {
+            try {
+                handler.run();
+            } finally {
+                queuedKeyMessages.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    // Runs on the key exchange worker.
+    private void onKeyExchange(InetSocketAddress sender, KeyExchangeMessage keyMsg) {
+        // Store the sender's public key
+        keyExchangesReceived.increment();
+        peerPublicKeys.put(sender, keyMsg.getPublicKey());
+        log.debug("Received and stored public key from {}", sender);
+
+        // The peer has (re)started the key exchange, so it does not know our current
+        // session key. The next send establishes a new one.
+        outboundSessions.remove(sender);
 
-            Cipher rsaEncryptCipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            rsaEncryptCipher.init(Cipher.ENCRYPT_MODE, receiverPublicKey);
-            byte[] encryptedPayloadBytes = rsaEncryptCipher.doFinal(serialize(payload));
+        // Respond with our public key if the peer asked for it. Replies never ask
+        // for a reply themselves, otherwise both sides would echo forever.
+        if (keyMsg.isReplyRequested()) {
+            log.debug("Sending our public key in response to {}", sender);
+            // Send KeyExchangeMessage directly as the payload.
+            super.send(sender, new KeyExchangeMessage(this.publicKey, false));
+            keyExchangesSent.increment();
+        }
 
-            // Send the encrypted byte array. byte[] is Serializable.
-            internalEndpoint.send(receiver, encryptedPayloadBytes);
+        // Now that we know the peer's key, send what was queued for it
+        try {
+            flushPending(sender);
+        } catch (Exception e) {
+            log.error("Error sending queued messages to {}", sender, e);
+        }
+    }
 
+    // Runs on the key exchange worker. Messages that arrived with the new key while it was
+    // unwrapped are decrypted afterwards and returned by the next receive.
+    private void onSessionKey(InetSocketAddress sender, SessionKeyMessage sessionMsg) {
+        try {
+            long start = System.nanoTime();
+            Cipher rsaUnwrapCipher = rsaCiphers.get();
+            rsaUnwrapCipher.init(Cipher.UNWRAP_MODE, this.privateKey);
+            SecretKey key = (SecretKey) rsaUnwrapCipher.unwrap(sessionMsg.getWrappedKey(), "AES",
+                    Cipher.SECRET_KEY);
+            rsaUnwrapLatency.recordSince(start);
+            sessionKeysReceived.increment();
+            inboundSessions.compute(sender, (address, current) -> new InboundSession(sessionMsg.getEpoch(), key,
+                    current == null ? null : new InboundSession(current.epoch, current.key, null)));
         } catch (Exception e) {
-            System.err.println("Error in SecureEndpoint send: " + e.getMessage());
-            e.printStackTrace();
+            failedMessages.increment();
+            log.error("Error unwrapping session key from {}", sender, e);
+        }
+        releaseParked(sender);
+        unwrapsInProgress.decrementAndGet();
+    }
+
+    // Keeps a message whose session key is still being unwrapped. Returns false if none is.
+    private boolean parkUntilUnwrapped(InetSocketAddress sender, byte[] encrypted) {
+        synchronized (unwrapping) {
+            Unwrapping state = unwrapping.get(sender);
+            if (state == null) {
+                return false;
+            }
+            if (state.parked.size() < pendingCapacity) {
+                state.parked.add(encrypted);
+            } else {
+                failedMessages.increment();
+            }
+            return true;
+        }
+    }
+
+    // Decrypts the parked messages of the sender once its last outstanding session key is known.
+    private void releaseParked(InetSocketAddress sender) {
+        List<byte[]> parked;
+        synchronized (unwrapping) {
+            Unwrapping state = unwrapping.get(sender);
+            if (--state.outstanding > 0) {
+                return;
+            }
+            unwrapping.remove(sender);
+            parked = state.parked;
+        }
+        for (byte[] encrypted : parked) {
+            SecretKey key = sessionKeyFor(sender, encrypted);
+            Message message = key == null ? null : decryptMessage(sender, key, encrypted);
+            if (message != null) {
+                unwrapped.add(message);
+            } else if (key == null) {
+                failedMessages.increment();
+            }
         }
     }
 
@@ -107,47 +733,58 @@ public class SecureEndpoint extends Endpoint {
 
         if (payload instanceof KeyExchangeMessage) {
             KeyExchangeMessage keyMsg = (KeyExchangeMessage) payload;
-            PublicKey peerKey = keyMsg.getPublicKey();
-
-            // Store the sender's public key
-            if (sender != null && peerKey != null) {
-                peerPublicKeys.put(sender, peerKey);
-                System.out.println("Received and stored public key from: " + sender);
-
-                // Respond with our public key if this is the first time we've received theirs,
-                // or to ensure they have ours.
-                // Avoid sending if they just sent us our own key (which shouldn't happen).
-                if (!peerPublicKeys.containsKey(sender) || !this.publicKey.equals(peerKey)) {
-                    System.out.println("Sending our public key in response to: " + sender);
-                    // Send KeyExchangeMessage directly as the payload.
-                    internalEndpoint.send(sender, new KeyExchangeMessage(this.publicKey));
-                }
+            if (sender != null && keyMsg.getPublicKey() != null) {
+                submitKeyMessage(sender, () -> onKeyExchange(sender, keyMsg));
             } else {
-                System.err.println("Received KeyExchangeMessage with null sender or null key.");
+                log.warn("Received KeyExchangeMessage with null sender or null key.");
             }
             return null; // KeyExchangeMessages are not passed to the application
         }
 
+        if (payload instanceof SessionKeyMessage) {
+            SessionKeyMessage sessionMsg = (SessionKeyMessage) payload;
+            synchronized (unwrapping) {
+                unwrapping.computeIfAbsent(sender, address -> new Unwrapping()).outstanding++;
+            }
+            unwrapsInProgress.incrementAndGet();
+            if (!submitKeyMessage(sender, () -> onSessionKey(sender, sessionMsg))) {
+                releaseParked(sender);
+                unwrapsInProgress.decrementAndGet();
+            }
+            return null; // SessionKeyMessages are not passed to the application
+        }
+
         if (payload instanceof byte[]) { // Assumed to be an encrypted message
-            try {
-                Cipher rsaDecryptCipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-                rsaDecryptCipher.init(Cipher.DECRYPT_MODE, this.privateKey);
-                byte[] decryptedPayloadBytes = rsaDecryptCipher.doFinal((byte[]) payload);
-                Serializable decryptedPayload = deserialize(decryptedPayloadBytes);
-                // Return a new Message object with the decrypted payload and original sender
-                return new Message(decryptedPayload, sender);
-            } catch (Exception e) {
-                System.err.println("Error decrypting message from " + sender + ": " + e.getMessage());
-                e.printStackTrace();
-                return null; // Failed to decrypt
+            byte[] encrypted = (byte[]) payload;
+            SecretKey key = sessionKeyFor(sender, encrypted);
+            if (key == null) {
+                if (parkUntilUnwrapped(sender, encrypted)) {
+                    return null;
+                }
+                // the worker may have installed the key since we looked
+                key = sessionKeyFor(sender, encrypted);
+            }
+            if (key == null) {
+                // We missed the session key (or restarted). Announcing our key again makes the
+                // sender start a new session. Messages of the old session still in flight would
+                // each restart it again, so we ask at most once per KEY_EXCHANGE_RETRY_NANOS and
+                // drop the others.
+                failedMessages.increment();
+                if (claimSessionReset(sender)) {
+                    log.warn("No session key for message from {}, restarting key exchange.", sender);
+                    super.send(sender, new KeyExchangeMessage(this.publicKey, false));
+                    keyExchangesSent.increment();
+                }
+                return null;
             }
+            return decryptMessage(sender, key, encrypted);
         } else {
             // If the payload is not a KeyExchangeMessage and not a byte[], it's unexpected.
             // It could be an unencrypted message if the other side hasn't implemented
             // encryption yet,
             // or a programming error.
-            System.err.println("Received non-encrypted, non-KeyExchange payload from " + sender + ": "
-                    + payload.getClass().getName() + ". Passing it up as is.");
+            log.warn("Received non-encrypted, non-KeyExchange payload from {}: {}. Passing it up as is.", sender,
+                    payload.getClass().getName());
             // For robustness, one might choose to pass it up, or discard it.
             // Passing it up as a new Message object.
             return new Message(payload, sender);
@@ -157,33 +794,74 @@ public class SecureEndpoint extends Endpoint {
     @Override
     public Message blockingReceive() {
         while (true) { // Loop to keep trying to receive until an application message or null
-            Message rawMessage = internalEndpoint.blockingReceive();
+            // read before polling, so a message the worker adds after the poll is not missed
+            boolean unwrapping = unwrapsInProgress.get() > 0;
+            Message waited = unwrapping ? awaitUnwrapped() : unwrapped.poll();
+            if (waited != null) {
+                return waited;
+            }
+            Message rawMessage;
+            try {
+                // While session keys are unwrapped, the socket is only looked at between waits for
+                // the worker, so that the messages waiting for those keys are returned right after.
+                rawMessage = unwrapping ? super.nonBlockingReceive() : super.blockingReceive();
+            } catch (RuntimeException e) {
+                // e.g. a truncated datagram that cannot be deserialized, the next one may be fine
+                failedMessages.increment();
+                log.warn("Dropping unreadable datagram: {}", e);
+                continue;
+            }
             if (rawMessage == null) {
-                return null; // Internal endpoint indicates no more messages (or error)
+                if (unwrapping) {
+                    continue;
+                }
+                return null; // Underlying endpoint indicates no more messages (or error)
             }
             Message appMessage = handleReceivedMessage(rawMessage);
             if (appMessage != null) {
                 return appMessage; // Decrypted application message
             }
-            // If appMessage is null, it was a KeyExchangeMessage (handled) or an error
+            // If appMessage is null, it was a key exchange message (handled) or an error
             // during handling.
             // Loop continues to get the next message.
         }
     }
 
+    // Waits up to UNWRAP_WAIT_MILLIS for a message the key exchange worker decrypted.
+    private Message awaitUnwrapped() {
+        try {
+            return unwrapped.poll(UNWRAP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // the caller sees the interrupt; the socket is then looked at without waiting
+            Thread.currentThread().interrupt();
+            return unwrapped.poll();
+        }
+    }
+
     @Override
     public Message nonBlockingReceive() {
+        Message waited = unwrapped.poll();
+        if (waited != null) {
+            return waited;
+        }
         // Try to get a message without blocking
-        Message rawMessage = internalEndpoint.nonBlockingReceive();
+        Message rawMessage;
+        try {
+            rawMessage = super.nonBlockingReceive();
+        } catch (RuntimeException e) {
+            failedMessages.increment();
+            log.warn("Dropping unreadable datagram: {}", e);
+            return null;
+        }
         if (rawMessage == null) {
             return null; // No message available
         }
 
-        // Process the raw message. This might be a KeyExchangeMessage or an encrypted
+        // Process the raw message. This might be a key exchange message or an encrypted
         // app message.
         Message appMessage = handleReceivedMessage(rawMessage);
 
-        // If appMessage is null, it means rawMessage was a KeyExchangeMessage (which
+        // If appMessage is null, it means rawMessage was a key exchange message (which
         // was handled)
         // or there was an error processing rawMessage.
         // In a non-blocking scenario, we return null if the first message pulled was
@@ -192,21 +870,4 @@ public class SecureEndpoint extends Endpoint {
         // If appMessage is not null, it's a decrypted application message.
         return appMessage;
     }
-
-    // Helper methods for serialization
-    private byte[] serialize(Serializable obj) throws java.io.IOException {
-        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-        java.io.ObjectOutputStream oos = new java.io.ObjectOutputStream(baos);
-        oos.writeObject(obj);
-        oos.close();
-        return baos.toByteArray();
-    }
-
-    private Serializable deserialize(byte[] bytes) throws java.io.IOException, ClassNotFoundException {
-        java.io.ByteArrayInputStream bais = new java.io.ByteArrayInputStream(bytes);
-        java.io.ObjectInputStream ois = new java.io.ObjectInputStream(bais);
-        Serializable obj = (Serializable) ois.readObject();
-        ois.close();
-        return obj;
-    }
 }
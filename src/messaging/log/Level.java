@@ -0,0 +1,5 @@
+package messaging.log;
+
+public enum Level {
+    DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,150 @@
+package messaging.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import messaging.metrics.Counter;
+import messaging.metrics.Metrics;
+
+/*
+ * Bounded ring buffer of log records and the thread that writes them. Any number of threads offer
+ * records, the writer thread is the only consumer. Every slot carries a sequence number that tells
+ * whose turn it is (Vyukov's bounded queue): a producer claims the slot for position p by moving the
+ * tail from p to p + 1 when the slot's sequence is p, fills it and publishes it by setting the
+ * sequence to p + 1; the writer frees it by setting the sequence to p + CAPACITY. The slots are
+ * reused, so logging a message allocates nothing but the arguments. When the buffer is full a record
+ * is dropped and counted rather than blocking the caller.
+ *
+ * Records with level WARN and above go to System.err, the others to System.out. The arguments are
+ * formatted by the writer, so they should not be modified after they were logged.
+ */
+final class LogWriter implements Runnable {
+    static final LogWriter INSTANCE = new LogWriter();
+
+    private static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final class Slot {
+        volatile long sequence;
+        long time;
+        Level level;
+        String logger;
+        String thread;
+        String message;
+        Object arg1;
+        Object arg2;
+    }
+
+    private final Slot[] slots = new Slot[CAPACITY];
+    private final AtomicLong tail = new AtomicLong();
+    // only used by the writer thread
+    private long head = 0;
+    private final StringBuilder line = new StringBuilder();
+    private final Counter dropped = Metrics.counter("log.dropped");
+
+    private LogWriter() {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        Thread writer = new Thread(this, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // write what is still buffered when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-flush"));
+    }
+
+    void offer(long time, Level level, String logger, String message, Object arg1, Object arg2) {
+        long position = tail.get();
+        while (true) {
+            Slot slot = slots[(int) (position & (CAPACITY - 1))];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.time = time;
+                    slot.level = level;
+                    slot.logger = logger;
+                    slot.thread = Thread.currentThread().getName();
+                    slot.message = message;
+                    slot.arg1 = arg1;
+                    slot.arg2 = arg2;
+                    slot.sequence = position + 1;
+                    return;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the writer has not freed this slot yet, the buffer is full
+                dropped.increment();
+                return;
+            } else {
+                // another producer claimed the slot, try the new tail
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // writes all published records and returns whether there were any
+    private synchronized boolean drain() {
+        boolean wrote = false;
+        while (true) {
+            Slot slot = slots[(int) (head & (CAPACITY - 1))];
+            if (slot.sequence != head + 1) {
+                break;
+            }
+            write(slot);
+            slot.arg1 = null;
+            slot.arg2 = null;
+            slot.message = null;
+            slot.sequence = head + CAPACITY;
+            head++;
+            wrote = true;
+        }
+        if (wrote) {
+            System.out.flush();
+            System.err.flush();
+        }
+        return wrote;
+    }
+
+    private void write(Slot slot) {
+        line.setLength(0);
+        TIME.formatTo(Instant.ofEpochMilli(slot.time), line);
+        line.append(' ').append(slot.level).append(" [").append(slot.thread).append("] ").append(slot.logger)
+                .append(": ");
+        Object[] args = { slot.arg1, slot.arg2 };
+        int used = 0;
+        String message = slot.message;
+        int from = 0;
+        for (int at; used < args.length && (at = message.indexOf("{}", from)) >= 0; from = at + 2) {
+            line.append(message, from, at).append(args[used++]);
+        }
+        line.append(message, from, message.length());
+        for (int i = used; i < args.length; i++) {
+            if (args[i] instanceof Throwable) {
+                StringWriter trace = new StringWriter();
+                ((Throwable) args[i]).printStackTrace(new PrintWriter(trace));
+                line.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+            }
+        }
+        PrintStream out = slot.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        out.println(line);
+    }
+}
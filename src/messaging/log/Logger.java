@@ -0,0 +1,93 @@
+package messaging.log;
+
+/**
+ * Logs to a ring buffer that a background thread writes out (see LogWriter), so logging never blocks
+ * the calling thread on a stream. Messages below the configured level are dropped before anything is
+ * allocated; the level is read from -Dmessaging.log.level=DEBUG|INFO|WARN|ERROR|OFF and defaults to
+ * INFO.
+ *
+ * A message may contain up to two {} placeholders that the writer replaces with the arguments. An
+ * argument left over after the placeholders that is a Throwable is printed with its stack trace.
+ */
+public final class Logger {
+    public static final String LEVEL_PROPERTY = "messaging.log.level";
+
+    private static volatile Level threshold = Level.valueOf(
+            System.getProperty(LEVEL_PROPERTY, Level.INFO.name()).toUpperCase());
+
+    private final String name;
+
+    private Logger(String name) {
+        this.name = name;
+    }
+
+    public static Logger get(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+
+    public static Level getLevel() {
+        return threshold;
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0 && level != Level.OFF;
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null);
+    }
+
+    public void debug(String message, Object arg) {
+        log(Level.DEBUG, message, arg, null);
+    }
+
+    public void debug(String message, Object arg1, Object arg2) {
+        log(Level.DEBUG, message, arg1, arg2);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null);
+    }
+
+    public void info(String message, Object arg) {
+        log(Level.INFO, message, arg, null);
+    }
+
+    public void info(String message, Object arg1, Object arg2) {
+        log(Level.INFO, message, arg1, arg2);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message, null, null);
+    }
+
+    public void warn(String message, Object arg) {
+        log(Level.WARN, message, arg, null);
+    }
+
+    public void warn(String message, Object arg1, Object arg2) {
+        log(Level.WARN, message, arg1, arg2);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message, null, null);
+    }
+
+    public void error(String message, Object arg) {
+        log(Level.ERROR, message, arg, null);
+    }
+
+    public void error(String message, Object arg1, Object arg2) {
+        log(Level.ERROR, message, arg1, arg2);
+    }
+
+    private void log(Level level, String message, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            LogWriter.INSTANCE.offer(System.currentTimeMillis(), level, name, message, arg1, arg2);
+        }
+    }
+}
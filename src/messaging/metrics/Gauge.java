@@ -0,0 +1,18 @@
+package messaging.metrics;
+
+/**
+ * A gauge registered with Metrics.gauge. Closing it removes the gauge from the registry, which then
+ * no longer reads it or keeps its owner reachable.
+ */
+public final class Gauge implements AutoCloseable {
+    private final Runnable unregister;
+
+    Gauge(Runnable unregister) {
+        this.unregister = unregister;
+    }
+
+    @Override
+    public void close() {
+        unregister.run();
+    }
+}
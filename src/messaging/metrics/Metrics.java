@@ -0,0 +1,157 @@
+package messaging.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of named counters, gauges and latency histograms. Looking a metric up by
+ * name costs a map access, so hot paths keep the returned Counter or LatencyHistogram in a field or,
+ * per message type, in a ClassValue (see forType).
+ *
+ * The registry is exposed as the MXBean messaging:type=Metrics and can print itself periodically,
+ * see startConfiguredDump.
+ */
+public final class Metrics {
+    // -Dmessaging.metrics.dumpSeconds=<n> prints all metrics every n seconds
+    public static final String DUMP_PROPERTY = "messaging.metrics.dumpSeconds";
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, List<LongSupplier>> gauges = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService dumper;
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBean() {
+                @Override
+                public Map<String, Long> getValues() {
+                    return values();
+                }
+
+                @Override
+                public String getDump() {
+                    return dump();
+                }
+            }, new ObjectName("messaging:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a value that is read when the metrics are. Gauges registered under the same name are
+     * added up. The owner closes the returned Gauge when it shuts down; totals over many short-lived
+     * objects are better kept in a Counter.
+     */
+    public static Gauge gauge(String name, LongSupplier value) {
+        gauges.compute(name, (n, suppliers) -> {
+            List<LongSupplier> list = suppliers != null ? suppliers : new CopyOnWriteArrayList<>();
+            list.add(value);
+            return list;
+        });
+        return new Gauge(() -> gauges.computeIfPresent(name, (n, suppliers) -> {
+            suppliers.remove(value);
+            return suppliers.isEmpty() ? null : suppliers;
+        }));
+    }
+
+    /**
+     * Returns a lookup of one histogram per payload class, named prefix + "." + simple class name.
+     */
+    public static ClassValue<LatencyHistogram> forType(String prefix) {
+        return new ClassValue<LatencyHistogram>() {
+            @Override
+            protected LatencyHistogram computeValue(Class<?> type) {
+                return histogram(prefix + "." + type.getSimpleName());
+            }
+        };
+    }
+
+    /**
+     * Returns all values by name, see MetricsMXBean.getValues.
+     */
+    public static Map<String, Long> values() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, suppliers) -> values.put(name, sum(suppliers)));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            values.put(name + ".p50", histogram.getPercentile(50));
+            values.put(name + ".p99", histogram.getPercentile(99));
+            values.put(name + ".max", histogram.getMax());
+        });
+        return values;
+    }
+
+    /**
+     * Returns one line per counter and gauge and one line per histogram, with latencies in microseconds.
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        Map<String, Long> plain = new TreeMap<>();
+        counters.forEach((name, counter) -> plain.put(name, counter.get()));
+        gauges.forEach((name, suppliers) -> plain.put(name, sum(suppliers)));
+        plain.forEach((name, value) -> dump.append(String.format("%-40s %d%n", name, value)));
+        new TreeMap<>(histograms).forEach((name, h) -> dump.append(String.format(
+                "%-40s n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n", name, h.getCount(), h.getMean() / 1e3,
+                h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3, h.getMax() / 1e3)));
+        return dump.toString();
+    }
+
+    private static long sum(List<LongSupplier> suppliers) {
+        long sum = 0;
+        for (LongSupplier supplier : suppliers) {
+            sum += supplier.getAsLong();
+        }
+        return sum;
+    }
+
+    /**
+     * Prints the dump to out every period on a daemon thread. Only the first call has an effect.
+     */
+    public static synchronized void startDump(long period, TimeUnit unit, PrintStream out) {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(dump()), period, period, unit);
+    }
+
+    /**
+     * Starts the periodic dump to System.out if DUMP_PROPERTY is set.
+     */
+    public static void startConfiguredDump() {
+        long seconds = Long.getLong(DUMP_PROPERTY, 0);
+        if (seconds > 0) {
+            startDump(seconds, TimeUnit.SECONDS, System.out);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package messaging.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the Metrics registry, registered as messaging:type=Metrics.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Current value of every counter and gauge, and count, mean, p50, p99 and max in nanoseconds of
+     * every histogram, e.g. "broker.HandoffRequest.p99".
+     */
+    Map<String, Long> getValues();
+
+    /**
+     * The values as the text the periodic dump prints.
+     */
+    String getDump();
+}